@@ -212,7 +212,8 @@ async function loadRoster(flightId) {
 
     try {
         // Ask backend: Is there a saved roster for this flight?
-        const response = await fetch(`${API_BASE_URL}/roster/generate/${flightId}?t=${new Date().getTime()}`, { 
+        // No cache-buster here: the backend sends an ETag with no-cache, so the browser revalidates and gets a 304 when unchanged
+        const response = await fetch(`${API_BASE_URL}/roster/generate/${flightId}`, { 
             method: 'GET', 
             headers: { 'Authorization': `Basic ${token}` } 
         });
@@ -0,0 +1,24 @@
+package com.cmpe331.common;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// Defers a reaction to a data change (cache invalidation, snapshot rebuild) until the writing transaction has
+// committed. JPA's @PostUpdate and friends run at flush, before the commit; reacting there lets a concurrent reader
+// load the old row again right after the invalidation. Rolled-back changes trigger nothing. Outside a Spring
+// managed transaction the action runs at once.
+public final class AfterCommit {
+
+    private AfterCommit() {}
+
+    public static void run(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() { action.run(); }
+        });
+    }
+}
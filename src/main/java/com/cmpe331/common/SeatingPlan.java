@@ -0,0 +1,49 @@
+package com.cmpe331.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A vehicle type's seatingPlanConfig compiled into its seats; the one place that knows how seats are numbered.
+// Rows are numbered from 1 continuously across sections, every row of a section has the section's letters, and
+// seats lists every seat front to back, so a seat's position in it is its index. The flight service serves this
+// as the vehicle type's seat map; the main system builds its seat allocator from it.
+public record SeatingPlan(List<Section> sections, List<String> seats) {
+
+    // One cabin section: its rows, letters, aisle layout and the range of seat indexes it covers
+    public record Section(String className, int firstRow, int lastRow, String letters, List<Integer> layout, int firstSeat, int seatCount) {}
+
+    private static final ObjectMapper CONFIG_READER = new ObjectMapper();
+
+    // config: {"sections": [{"className": "BUSINESS", "rows": 3, "layout": [1, 2], "letters": "ADF"}, ...]}
+    public static SeatingPlan parse(String config) {
+        JsonNode root;
+        try {
+            root = config != null ? CONFIG_READER.readTree(config) : null;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid seating plan: " + e.getMessage());
+        }
+        if (root == null || !root.path("sections").isArray()) throw new IllegalArgumentException("No sections in seating plan");
+
+        List<Section> sections = new ArrayList<>();
+        List<String> seats = new ArrayList<>();
+        int row = 1;
+        for (JsonNode node : root.get("sections")) {
+            String className = node.path("className").asText().toUpperCase();
+            int rows = node.path("rows").asInt();
+            String letters = node.path("letters").asText();
+            List<Integer> layout = new ArrayList<>();
+            node.path("layout").forEach(n -> layout.add(n.asInt()));
+            int firstSeat = seats.size();
+            for (int r = 0; r < rows; r++, row++) {
+                for (char c : letters.toCharArray()) seats.add(row + String.valueOf(c));
+            }
+            sections.add(new Section(className, row - rows, row - 1, letters, List.copyOf(layout), firstSeat, seats.size() - firstSeat));
+        }
+        return new SeatingPlan(List.copyOf(sections), List.copyOf(seats));
+    }
+
+    public int rows() { return sections.isEmpty() ? 0 : sections.get(sections.size() - 1).lastRow(); }
+}
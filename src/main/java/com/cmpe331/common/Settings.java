@@ -0,0 +1,19 @@
+package com.cmpe331.common;
+
+// Tuning settings shared by all services: read from the environment (docker-compose) or a -D system property
+public final class Settings {
+
+    private Settings() {}
+
+    public static int envInt(String name, int defaultValue) {
+        String value = envString(name, null);
+        if (value == null) return defaultValue;
+        try { return Integer.parseInt(value); } catch (NumberFormatException e) { return defaultValue; }
+    }
+
+    public static String envString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) value = System.getProperty(name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+}
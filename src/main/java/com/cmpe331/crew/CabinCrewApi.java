@@ -1,12 +1,28 @@
 package com.cmpe331.crew;
 
+import com.cmpe331.common.AfterCommit;
+import com.cmpe331.serving.ServingSnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import jakarta.persistence.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.core.userdetails.User;
@@ -14,20 +30,41 @@ import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.web.bind.annotation.*;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.springframework.security.config.Customizer.withDefaults;
 
 @SpringBootApplication
 public class CabinCrewApi {
+
+    private static final Logger log = LoggerFactory.getLogger(CabinCrewApi.class);
+
     public static void main(String[] args) {
         System.setProperty("server.port", "8083");
         System.setProperty("spring.datasource.url", "jdbc:sqlite:cabin_db.sqlite");
         SpringApplication.run(CabinCrewApi.class, args);
     }
 
+    // findEligibleIds matches the vehicle case-insensitively on lower(vehicle_type); JPA cannot declare an index on an
+    // expression. The exact-match index it replaces is dropped from databases created before.
+    @Bean
+    CommandLineRunner eligibilityIndex(JdbcTemplate jdbc) {
+        return args -> {
+            jdbc.execute("CREATE INDEX IF NOT EXISTS idx_crew_vehicles_vehicle_nocase ON crew_vehicles (lower(vehicle_type), crew_id)");
+            jdbc.execute("DROP INDEX IF EXISTS idx_crew_vehicles_vehicle");
+        };
+    }
+
     @Bean
     CommandLineRunner initCrew(CabinCrewRepository crewRepo) {
         return args -> {
@@ -91,7 +128,7 @@ public class CabinCrewApi {
                     if(counter >= 60) break;
                 }
 
-                System.out.println("--- CREW DB SEEDED WITH MASSIVE POOL (" + counter + " regulars) ---");
+                log.info("--- CREW DB SEEDED WITH MASSIVE POOL ({} regulars) ---", counter);
             }
         };
     }
@@ -116,15 +153,143 @@ class SecurityConfig {
 }
 
 @RestController @RequestMapping("/api/cabin-crew") @CrossOrigin(origins = "*")
+@ConditionalOnProperty(name = "serving.in-memory", havingValue = "false", matchIfMissing = true)
 class CabinCrewController {
     private final CabinCrewRepository repo;
     public CabinCrewController(CabinCrewRepository repo) { this.repo = repo; }
     @GetMapping public List<CabinCrewMember> getAll() { return repo.findAll(); }
+
+    // "N chiefs, M chefs, K regulars for vehicle X" (ignoring case), already grouped by type and limited per type
+    @GetMapping("/eligible")
+    public Map<String, List<CabinCrewMember>> getEligible(@RequestParam("vehicle") String vehicle,
+                                                          @RequestParam(value = "chiefs", defaultValue = "1") int chiefs,
+                                                          @RequestParam(value = "chefs", defaultValue = "1") int chefs,
+                                                          @RequestParam(value = "regulars", defaultValue = "4") int regulars) {
+        List<Long> ids = repo.findEligibleIds(vehicle, quota(chiefs), quota(chefs), quota(regulars)).stream().map(Number::longValue).collect(Collectors.toList());
+
+        Map<String, List<CabinCrewMember>> grouped = new LinkedHashMap<>();
+        grouped.put("CHIEF", new ArrayList<>());
+        grouped.put("CHEF", new ArrayList<>());
+        grouped.put("REGULAR", new ArrayList<>());
+        if (ids.isEmpty()) return grouped;
+
+        Map<Long, CabinCrewMember> byId = repo.findAllById(ids).stream().collect(Collectors.toMap(CabinCrewMember::getId, c -> c));
+        for (Long id : ids) {
+            CabinCrewMember c = byId.get(id);
+            if (c != null && grouped.containsKey(c.getType())) grouped.get(c.getType()).add(c);
+        }
+        return grouped;
+    }
+
+    static int quota(int requested) { return Math.max(0, Math.min(requested, 100)); }
+}
+
+// serving.in-memory=true: the same endpoints answered from a ServingSnapshot instead of SQLite and the three
+// crew element collections. Members are serialized once per rebuild; responses join those bytes.
+@RestController @RequestMapping("/api/cabin-crew") @CrossOrigin(origins = "*")
+@ConditionalOnProperty(name = "serving.in-memory", havingValue = "true")
+class CabinCrewServingController {
+    static final List<String> TYPES = List.of("CHIEF", "CHEF", "REGULAR");
+    private static final byte[][] TYPE_KEYS = TYPES.stream().map(t -> ("\"" + t + "\":").getBytes(StandardCharsets.US_ASCII)).toArray(byte[][]::new);
+
+    record Entry(String type, byte[] json) {}
+    // byVehicle is keyed by the lower-cased vehicle, its lists are in id order, so the first N of a type are the ones
+    // findEligibleIds picks
+    record Snapshot(byte[] all, Map<String, List<Entry>> byVehicle) {}
+
+    private final CabinCrewRepository repo;
+    private final ObjectMapper mapper;
+    private final long refreshSeconds;
+    private final ServingSnapshot<Snapshot> snapshot;
+
+    public CabinCrewServingController(CabinCrewRepository repo, ObjectMapper mapper, @Value("${serving.refresh-seconds:300}") long refreshSeconds) {
+        this.repo = repo; this.mapper = mapper; this.refreshSeconds = refreshSeconds;
+        this.snapshot = new ServingSnapshot<>("cabin-crew", this::load);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE) public byte[] getAll() { return snapshot.get().all(); }
+
+    @GetMapping(value = "/eligible", produces = MediaType.APPLICATION_JSON_VALUE)
+    public byte[] getEligible(@RequestParam("vehicle") String vehicle,
+                              @RequestParam(value = "chiefs", defaultValue = "1") int chiefs,
+                              @RequestParam(value = "chefs", defaultValue = "1") int chefs,
+                              @RequestParam(value = "regulars", defaultValue = "4") int regulars) {
+        int[] quotas = {CabinCrewController.quota(chiefs), CabinCrewController.quota(chefs), CabinCrewController.quota(regulars)};
+        List<List<byte[]>> grouped = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        for (Entry e : snapshot.get().byVehicle().getOrDefault(vehicle.toLowerCase(Locale.ROOT), List.of())) {
+            int t = TYPES.indexOf(e.type());
+            if (t >= 0 && grouped.get(t).size() < quotas[t]) grouped.get(t).add(e.json());
+        }
+        // {"CHIEF":[..],"CHEF":[..],"REGULAR":[..]}, the shape CabinCrewController returns
+        List<byte[]> parts = new ArrayList<>(TYPES.size());
+        for (int t = 0; t < TYPES.size(); t++) {
+            byte[] key = TYPE_KEYS[t];
+            byte[] members = ServingSnapshot.jsonArray(grouped.get(t));
+            byte[] part = new byte[key.length + members.length];
+            System.arraycopy(key, 0, part, 0, key.length);
+            System.arraycopy(members, 0, part, key.length, members.length);
+            parts.add(part);
+        }
+        byte[] body = ServingSnapshot.jsonArray(parts);
+        body[0] = '{';
+        body[body.length - 1] = '}';
+        return body;
+    }
+
+    @GetMapping("/serving-stats") public Map<String, Object> getServingStats() { return snapshot.stats(); }
+
+    @EventListener(ApplicationReadyEvent.class) public void start() { snapshot.start(refreshSeconds); }
+    @PreDestroy public void stop() { snapshot.close(); }
+    void dataChanged() { snapshot.changed(); }
+
+    Snapshot load() {
+        List<CabinCrewMember> crew = new ArrayList<>(repo.findAll());
+        crew.sort(Comparator.comparing(CabinCrewMember::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+        List<byte[]> all = new ArrayList<>(crew.size());
+        Map<String, List<Entry>> byVehicle = new HashMap<>();
+        for (CabinCrewMember c : crew) {
+            byte[] json = toJson(c);
+            all.add(json);
+            if (c.getAllowedVehicles() == null) continue;
+            Entry entry = new Entry(c.getType(), json);
+            for (String vehicle : c.getAllowedVehicles()) {
+                if (vehicle == null) continue;
+                List<Entry> entries = byVehicle.computeIfAbsent(vehicle.toLowerCase(Locale.ROOT), v -> new ArrayList<>());
+                // a member listing the vehicle in two spellings is still one entry
+                if (entries.isEmpty() || entries.get(entries.size() - 1) != entry) entries.add(entry);
+            }
+        }
+        byVehicle.replaceAll((v, entries) -> List.copyOf(entries));
+        return new Snapshot(ServingSnapshot.jsonArray(all), Map.copyOf(byVehicle));
+    }
+
+    private byte[] toJson(CabinCrewMember c) {
+        try { return mapper.writeValueAsBytes(c); } catch (JsonProcessingException e) { throw new IllegalStateException("Cannot serialize crew member " + c.getId(), e); }
+    }
 }
 
-interface CabinCrewRepository extends JpaRepository<CabinCrewMember, Long> {}
+// Reports crew writes to the serving snapshot once they commit; a no-op unless serving.in-memory is on
+class CrewChangeListener {
+    private final ObjectProvider<CabinCrewServingController> serving;
+    public CrewChangeListener(ObjectProvider<CabinCrewServingController> serving) { this.serving = serving; }
+
+    @PostPersist @PostUpdate @PostRemove
+    public void onChange(Object entity) { AfterCommit.run(() -> serving.ifAvailable(CabinCrewServingController::dataChanged)); }
+}
+
+interface CabinCrewRepository extends JpaRepository<CabinCrewMember, Long> {
+    // One pass over crew_vehicles (indexed on lower(vehicle_type)), ROW_NUMBER keeps the first N of each type by id.
+    // DISTINCT: a member may list the vehicle in two spellings
+    @Query(value = "SELECT id FROM (" +
+            "SELECT id, type, ROW_NUMBER() OVER (PARTITION BY type ORDER BY id) AS rn FROM (" +
+            "SELECT DISTINCT c.id AS id, c.type AS type " +
+            "FROM crew_vehicles v JOIN cabin_crew c ON c.id = v.crew_id WHERE lower(v.vehicle_type) = lower(:vehicle))) " +
+            "WHERE (type = 'CHIEF' AND rn <= :chiefs) OR (type = 'CHEF' AND rn <= :chefs) OR (type = 'REGULAR' AND rn <= :regulars) " +
+            "ORDER BY id", nativeQuery = true)
+    List<Number> findEligibleIds(@Param("vehicle") String vehicle, @Param("chiefs") int chiefs, @Param("chefs") int chefs, @Param("regulars") int regulars);
+}
 
-@Entity @Table(name = "cabin_crew")
+@Entity @EntityListeners(CrewChangeListener.class) @Table(name = "cabin_crew")
 class CabinCrewMember {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY) private Long id;
     private String name; private int age; private String gender; private String nationality;
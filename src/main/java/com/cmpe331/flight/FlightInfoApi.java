@@ -1,22 +1,47 @@
 package com.cmpe331.flight;
 
+import com.cmpe331.common.AfterCommit;
+import com.cmpe331.common.SeatingPlan;
+import com.cmpe331.common.Settings;
+import com.cmpe331.serving.ServingSnapshot;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import static org.springframework.security.config.Customizer.withDefaults;
 
@@ -25,8 +50,17 @@ public class FlightInfoApi {
     public static void main(String[] args) {
         System.setProperty("server.port", "8081");
         System.setProperty("spring.datasource.url", "jdbc:sqlite:flight_db.sqlite");
+        // Second-level and query cache (Caffeine through JCache) for the Airport and VehicleType reference rows;
+        // statistics feed the hibernate.* meters at /actuator/prometheus
+        System.setProperty("spring.jpa.properties.hibernate.cache.use_second_level_cache", "true");
+        System.setProperty("spring.jpa.properties.hibernate.cache.use_query_cache", "true");
+        System.setProperty("spring.jpa.properties.hibernate.cache.region.factory_class", "jcache");
+        System.setProperty("spring.jpa.properties.hibernate.javax.cache.provider", "com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider");
+        System.setProperty("spring.jpa.properties.hibernate.javax.cache.missing_cache_strategy", "create");
+        System.setProperty("spring.jpa.properties.hibernate.generate_statistics", "true");
         SpringApplication.run(FlightInfoApi.class, args);
     }
+
     @Bean
     CommandLineRunner initDatabase(AirportRepository airportRepo, VehicleTypeRepository vehicleRepo, FlightRepository flightRepo, SharedFlightRepository sharedRepo) {
         return args -> {
@@ -57,28 +91,268 @@ public class FlightInfoApi {
 @Configuration @EnableWebSecurity
 class SecurityConfig {
     @Bean public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
-        http.csrf(c -> c.disable()).authorizeHttpRequests(a -> a.anyRequest().authenticated()).httpBasic(withDefaults()); return http.build();
+        http.csrf(c -> c.disable()).authorizeHttpRequests(a -> a.requestMatchers("/actuator/health", "/actuator/prometheus").permitAll().anyRequest().authenticated()).httpBasic(withDefaults()); return http.build();
     }
     @Bean public InMemoryUserDetailsManager userDetailsService() {
         return new InMemoryUserDetailsManager(User.withDefaultPasswordEncoder().username("admin").password("password").roles("USER").build());
     }
 }
 @RestController @RequestMapping("/api/flights") @CrossOrigin(origins = "*") 
+@ConditionalOnProperty(name = "serving.in-memory", havingValue = "false", matchIfMissing = true)
 class FlightController {
     private final FlightRepository flightRepo;
     private final SharedFlightRepository sharedRepo;
-    public FlightController(FlightRepository f, SharedFlightRepository s) { this.flightRepo = f; this.sharedRepo = s; }
+    private final FlightCache flightCache;
+    public FlightController(FlightRepository f, SharedFlightRepository s, FlightCache c) { this.flightRepo = f; this.sharedRepo = s; this.flightCache = c; }
     @GetMapping public List<Flight> getAllFlights() { return flightRepo.findAll(); }
+    // Multi-get: /api/flights?ids=TK1001,TK2020 -> found flights in request order, unknown ids are skipped
+    @GetMapping(params = "ids") public List<Flight> getFlights(@RequestParam("ids") List<String> ids) { return flightCache.getAll(ids, flightRepo::findAllById); }
     @GetMapping("/{flightNumber}") public ResponseEntity<Flight> getFlight(@PathVariable("flightNumber") String flightNumber) {
-        return flightRepo.findAll().stream().filter(f -> f.getFlightNumber().equals(flightNumber)).findFirst().map(ResponseEntity::ok).orElse(ResponseEntity.notFound().build());
+        Flight flight = flightCache.get(flightNumber, id -> flightRepo.findById(id).orElse(null));
+        return flight != null ? ResponseEntity.ok(flight) : ResponseEntity.notFound().build();
     }
+    @GetMapping("/cache-stats") public Map<String, Object> getCacheStats() { return flightCache.stats(); }
     @GetMapping("/{flightNumber}/shared-info") public ResponseEntity<SharedFlightDetails> getSharedInfo(@PathVariable("flightNumber") String flightNumber) { return sharedRepo.findById(flightNumber).map(ResponseEntity::ok).orElse(ResponseEntity.notFound().build()); }
 }
 interface FlightRepository extends JpaRepository<Flight, String> {}
-interface AirportRepository extends JpaRepository<Airport, String> {}
-interface VehicleTypeRepository extends JpaRepository<VehicleType, Integer> {}
+
+// serving.in-memory=true: FlightController's endpoints answered from a ServingSnapshot of every flight aggregate and
+// shared-flight row, serialized once per rebuild. Replaces FlightCache for these reads; /cache-stats shows the snapshot.
+@RestController @RequestMapping("/api/flights") @CrossOrigin(origins = "*")
+@ConditionalOnProperty(name = "serving.in-memory", havingValue = "true")
+class FlightServingController {
+    record Snapshot(byte[] all, Map<String, byte[]> flights, Map<String, byte[]> sharedInfo) {}
+
+    private final FlightRepository flightRepo;
+    private final SharedFlightRepository sharedRepo;
+    private final ObjectMapper mapper;
+    private final long refreshSeconds;
+    private final ServingSnapshot<Snapshot> snapshot;
+
+    public FlightServingController(FlightRepository f, SharedFlightRepository s, ObjectMapper mapper, @Value("${serving.refresh-seconds:300}") long refreshSeconds) {
+        this.flightRepo = f; this.sharedRepo = s; this.mapper = mapper; this.refreshSeconds = refreshSeconds;
+        this.snapshot = new ServingSnapshot<>("flights", this::load);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE) public byte[] getAllFlights() { return snapshot.get().all(); }
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE) public byte[] getFlights(@RequestParam("ids") List<String> ids) {
+        Map<String, byte[]> flights = snapshot.get().flights();
+        List<byte[]> found = new ArrayList<>(ids.size());
+        for (String id : ids) { byte[] f = flights.get(id); if (f != null) found.add(f); }
+        return ServingSnapshot.jsonArray(found);
+    }
+    @GetMapping(value = "/{flightNumber}", produces = MediaType.APPLICATION_JSON_VALUE) public ResponseEntity<byte[]> getFlight(@PathVariable("flightNumber") String flightNumber) { return orNotFound(snapshot.get().flights().get(flightNumber)); }
+    @GetMapping("/cache-stats") public Map<String, Object> getCacheStats() { return snapshot.stats(); }
+    @GetMapping(value = "/{flightNumber}/shared-info", produces = MediaType.APPLICATION_JSON_VALUE) public ResponseEntity<byte[]> getSharedInfo(@PathVariable("flightNumber") String flightNumber) { return orNotFound(snapshot.get().sharedInfo().get(flightNumber)); }
+
+    @EventListener(ApplicationReadyEvent.class) public void start() { snapshot.start(refreshSeconds); }
+    @PreDestroy public void stop() { snapshot.close(); }
+    void dataChanged() { snapshot.changed(); }
+
+    Snapshot load() {
+        List<Flight> flights = new ArrayList<>(flightRepo.findAll());
+        flights.sort(Comparator.comparing(Flight::getFlightNumber));
+        List<byte[]> all = new ArrayList<>(flights.size());
+        Map<String, byte[]> byNumber = new HashMap<>();
+        for (Flight f : flights) { byte[] json = toJson(f); all.add(json); byNumber.put(f.getFlightNumber(), json); }
+        Map<String, byte[]> shared = new HashMap<>();
+        for (SharedFlightDetails d : sharedRepo.findAll()) shared.put(d.getLocalFlightNumber(), toJson(d));
+        return new Snapshot(ServingSnapshot.jsonArray(all), Map.copyOf(byNumber), Map.copyOf(shared));
+    }
+
+    private byte[] toJson(Object entity) {
+        try { return mapper.writeValueAsBytes(entity); } catch (JsonProcessingException e) { throw new IllegalStateException("Cannot serialize " + entity, e); }
+    }
+
+    private static ResponseEntity<byte[]> orNotFound(byte[] json) { return json != null ? ResponseEntity.ok(json) : ResponseEntity.notFound().build(); }
+}
+
+// Read-through cache of Flight aggregates (flight + airports + vehicle type), LRU bounded with a TTL.
+// Entries are dropped by FlightDataListener whenever a flight, airport or vehicle type change commits. A load that
+// was running during an invalidation may have read the old rows, so its result is returned but not cached.
+@Component
+class FlightCache {
+    private record Entry(Flight flight, long loadedAtNanos) {}
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long generation; // bumped by every invalidation, guarded by this
+
+    public FlightCache() { this(Settings.envInt("FLIGHT_CACHE_MAX_ENTRIES", 10000), Settings.envInt("FLIGHT_CACHE_TTL_SECONDS", 600)); }
+
+    FlightCache(int maxEntries, long ttlSeconds) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                boolean evict = size() > FlightCache.this.maxEntries;
+                if (evict) evictions.incrementAndGet();
+                return evict;
+            }
+        };
+    }
+
+    Flight get(String flightNumber, Function<String, Flight> loader) {
+        Flight cached = lookup(flightNumber);
+        if (cached != null) return cached;
+        long loadedIn = generation();
+        Flight loaded = loader.apply(flightNumber);
+        if (loaded != null) put(List.of(loaded), loadedIn);
+        return loaded;
+    }
+
+    List<Flight> getAll(List<String> flightNumbers, Function<List<String>, List<Flight>> loader) {
+        Map<String, Flight> found = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String id : flightNumbers) {
+            Flight cached = lookup(id);
+            if (cached != null) found.put(id, cached); else missing.add(id);
+        }
+        if (!missing.isEmpty()) {
+            long loadedIn = generation();
+            List<Flight> loaded = loader.apply(new ArrayList<>(missing));
+            for (Flight f : loaded) found.put(f.getFlightNumber(), f);
+            put(loaded, loadedIn);
+        }
+        List<Flight> result = new ArrayList<>();
+        for (String id : flightNumbers) { Flight f = found.get(id); if (f != null) result.add(f); }
+        return result;
+    }
+
+    synchronized void invalidate(String flightNumber) { generation++; entries.remove(flightNumber); }
+    synchronized void invalidateAll() { generation++; entries.clear(); }
+
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("entries", entries.size()); m.put("maxEntries", maxEntries);
+        m.put("hits", hits.get()); m.put("misses", misses.get()); m.put("evictions", evictions.get());
+        return m;
+    }
+
+    private synchronized Flight lookup(String flightNumber) {
+        Entry e = entries.get(flightNumber);
+        if (e != null && System.nanoTime() - e.loadedAtNanos() < ttlNanos) { hits.incrementAndGet(); return e.flight(); }
+        if (e != null) entries.remove(flightNumber);
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private synchronized long generation() { return generation; }
+
+    private synchronized void put(List<Flight> flights, long loadedIn) {
+        if (loadedIn != generation) return;
+        long now = System.nanoTime();
+        for (Flight f : flights) entries.put(f.getFlightNumber(), new Entry(f, now));
+    }
+}
+
+// Seating plan of a vehicle type compiled once from seatingPlanConfig (numbering rules in SeatingPlan, shared with
+// the main system's seat allocator), plus an index from seat label to seat position.
+record SeatMap(Integer vehicleTypeId, String modelName, List<SeatingPlan.Section> sections, List<String> seats,
+               @JsonIgnore Map<String, Integer> seatIndex) {
+
+    static SeatMap compile(VehicleType vehicle) {
+        SeatingPlan plan;
+        try {
+            plan = SeatingPlan.parse(vehicle.getSeatingPlanConfig());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(e.getMessage() + " (vehicle type " + vehicle.getId() + ")");
+        }
+        Map<String, Integer> seatIndex = new HashMap<>();
+        for (int i = 0; i < plan.seats().size(); i++) seatIndex.put(plan.seats().get(i), i);
+        return new SeatMap(vehicle.getId(), vehicle.getModelName(), plan.sections(), plan.seats(), Map.copyOf(seatIndex));
+    }
+
+    // -1 when the seat is not on this vehicle
+    int indexOf(String seat) { return seat == null ? -1 : seatIndex.getOrDefault(seat, -1); }
+
+    // Cabin class of a seat index, null when out of range
+    String classOf(int index) {
+        for (SeatingPlan.Section s : sections) if (index >= s.firstSeat() && index < s.firstSeat() + s.seatCount()) return s.className();
+        return null;
+    }
+}
+
+// Compiled seat maps by vehicle type id. There are only a handful of vehicle types, so nothing is evicted;
+// FlightDataListener drops an entry when its vehicle type changes.
+@Component
+class SeatMapCache {
+    private final Map<Integer, SeatMap> seatMaps = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong compiles = new AtomicLong();
+
+    SeatMap get(VehicleType vehicle) {
+        SeatMap cached = seatMaps.get(vehicle.getId());
+        if (cached != null) { hits.incrementAndGet(); return cached; }
+        return seatMaps.computeIfAbsent(vehicle.getId(), id -> { compiles.incrementAndGet(); return SeatMap.compile(vehicle); });
+    }
+
+    void invalidate(Integer vehicleTypeId) { if (vehicleTypeId != null) seatMaps.remove(vehicleTypeId); }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("entries", seatMaps.size()); m.put("hits", hits.get()); m.put("compiles", compiles.get());
+        return m;
+    }
+}
+
+@RestController @RequestMapping("/api/flights/vehicle-types") @CrossOrigin(origins = "*")
+class SeatMapController {
+    private final VehicleTypeRepository vehicleRepo;
+    private final SeatMapCache seatMapCache;
+    public SeatMapController(VehicleTypeRepository v, SeatMapCache c) { this.vehicleRepo = v; this.seatMapCache = c; }
+    @GetMapping("/{id}/seat-map") public ResponseEntity<SeatMap> getSeatMap(@PathVariable("id") Integer id) {
+        Optional<VehicleType> vehicle = vehicleRepo.findById(id);
+        if (vehicle.isEmpty()) return ResponseEntity.notFound().build();
+        try {
+            return ResponseEntity.ok(seatMapCache.get(vehicle.get()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.unprocessableEntity().build();
+        }
+    }
+    @GetMapping("/seat-map-stats") public Map<String, Object> getSeatMapStats() { return seatMapCache.stats(); }
+}
+
+// JPA entity listener (created by Spring through Hibernate's bean container) that keeps FlightCache and SeatMapCache
+// consistent. The entries are dropped once the change has committed.
+class FlightDataListener {
+    private final FlightCache flightCache;
+    private final SeatMapCache seatMapCache;
+    public FlightDataListener(FlightCache flightCache, SeatMapCache seatMapCache) { this.flightCache = flightCache; this.seatMapCache = seatMapCache; }
+
+    @PostPersist @PostUpdate @PostRemove
+    public void onChange(Object entity) { AfterCommit.run(() -> invalidate(entity)); }
+
+    private void invalidate(Object entity) {
+        if (entity instanceof VehicleType v) seatMapCache.invalidate(v.getId());
+        // airports and vehicle types are shared by many cached aggregates
+        if (entity instanceof Flight f) flightCache.invalidate(f.getFlightNumber());
+        else flightCache.invalidateAll();
+    }
+}
+// Reports flight data writes to the serving snapshot once they commit; a no-op unless serving.in-memory is on
+class FlightServingListener {
+    private final ObjectProvider<FlightServingController> serving;
+    public FlightServingListener(ObjectProvider<FlightServingController> serving) { this.serving = serving; }
+
+    @PostPersist @PostUpdate @PostRemove
+    public void onChange(Object entity) { AfterCommit.run(() -> serving.ifAvailable(FlightServingController::dataChanged)); }
+}
+interface AirportRepository extends JpaRepository<Airport, String> {
+    @Override @QueryHints(@QueryHint(name = AvailableHints.HINT_CACHEABLE, value = "true")) List<Airport> findAll();
+}
+interface VehicleTypeRepository extends JpaRepository<VehicleType, Integer> {
+    @Override @QueryHints(@QueryHint(name = AvailableHints.HINT_CACHEABLE, value = "true")) List<VehicleType> findAll();
+}
 interface SharedFlightRepository extends JpaRepository<SharedFlightDetails, String> {}
-@Entity @Table(name = "airports")
+// Airports and vehicle types are a handful of nearly static rows: kept in the second-level cache, where READ_WRITE
+// replaces an entry when a write commits
+@Entity @EntityListeners({FlightDataListener.class, FlightServingListener.class}) @Table(name = "airports")
+@Cacheable @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "airports")
 class Airport {
     @Id @Column(length = 3) private String code;
     private String name; private String city; private String country;
@@ -86,7 +360,8 @@ class Airport {
     public Airport(String c, String n, String ci, String co) { code=c; name=n; city=ci; country=co; }
     public String getCode() { return code; } public String getName() { return name; } public String getCity() { return city; } public String getCountry() { return country; }
 }
-@Entity @Table(name = "vehicle_types")
+@Entity @EntityListeners({FlightDataListener.class, FlightServingListener.class}) @Table(name = "vehicle_types")
+@Cacheable @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "vehicle_types")
 class VehicleType {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY) private Integer id;
     private String modelName; private int totalSeats; private int crewLimit; private int passengerLimit;
@@ -96,18 +371,19 @@ class VehicleType {
     public VehicleType(String m, int t, int c, int p, String s, String menu) { modelName=m; totalSeats=t; crewLimit=c; passengerLimit=p; seatingPlanConfig=s; standardMenuDescription=menu; }
     public Integer getId() { return id; } public String getModelName() { return modelName; } public int getTotalSeats() { return totalSeats; } public String getSeatingPlanConfig() { return seatingPlanConfig; } public String getStandardMenuDescription() { return standardMenuDescription; }
 }
-@Entity @Table(name = "flights")
+@Entity @EntityListeners({FlightDataListener.class, FlightServingListener.class}) @Table(name = "flights")
 class Flight {
     @Id @Column(length = 6) private String flightNumber;
     private LocalDateTime dateTime; private int durationMinutes; private int distanceKm;
-    @ManyToOne @JoinColumn(name = "source_airport_code") private Airport source;
-    @ManyToOne @JoinColumn(name = "destination_airport_code") private Airport destination;
-    @ManyToOne @JoinColumn(name = "vehicle_type_id") private VehicleType vehicleType;
+    // Loaded by id (second-level cache first) instead of joined into every flight query
+    @ManyToOne @Fetch(FetchMode.SELECT) @JoinColumn(name = "source_airport_code") private Airport source;
+    @ManyToOne @Fetch(FetchMode.SELECT) @JoinColumn(name = "destination_airport_code") private Airport destination;
+    @ManyToOne @Fetch(FetchMode.SELECT) @JoinColumn(name = "vehicle_type_id") private VehicleType vehicleType;
     public Flight() {}
     public Flight(String f, LocalDateTime d, int dum, int dis, Airport s, Airport des, VehicleType v) { flightNumber=f; dateTime=d; durationMinutes=dum; distanceKm=dis; source=s; destination=des; vehicleType=v; }
     public String getFlightNumber() { return flightNumber; } public LocalDateTime getDateTime() { return dateTime; } public Airport getSource() { return source; } public Airport getDestination() { return destination; } public VehicleType getVehicleType() { return vehicleType; } public int getDistanceKm() { return distanceKm; }
 }
-@Entity @Table(name = "shared_flight_details")
+@Entity @EntityListeners(FlightServingListener.class) @Table(name = "shared_flight_details")
 class SharedFlightDetails {
     @Id private String localFlightNumber;
     private String partnerCompanyName; private String partnerFlightNumber; private String connectingFlightInfo;
@@ -0,0 +1,49 @@
+package com.cmpe331.mainsystem;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Deadline of the roster a downstream call is made for. The request factories in HttpClientConfig cut the read
+// timeout (and the wait for a pooled connection) of every call made under a deadline to the time that is left,
+// so a call the roster stopped waiting for ends at the deadline and gives its thread and connection back.
+// Cancelling the CompletableFuture alone would not stop it: that never interrupts the running task, and a
+// blocking socket read does not react to interrupts anyway.
+final class CallDeadline {
+
+    private static final ThreadLocal<Long> DEADLINE_NANOS = new ThreadLocal<>();
+
+    private CallDeadline() {}
+
+    // The task with the deadline (a System.nanoTime() value) set on whichever thread runs it
+    static <T> Supplier<T> bind(long deadlineNanos, Supplier<T> task) {
+        return () -> {
+            Long outer = DEADLINE_NANOS.get();
+            DEADLINE_NANOS.set(deadlineNanos);
+            try {
+                return task.get();
+            } finally {
+                if (outer == null) DEADLINE_NANOS.remove(); else DEADLINE_NANOS.set(outer);
+            }
+        };
+    }
+
+    // Hands the current thread's deadline, if any, on to a task that runs on another thread
+    static <T> Supplier<T> propagate(Supplier<T> task) {
+        Long deadline = DEADLINE_NANOS.get();
+        return deadline == null ? task : bind(deadline, task);
+    }
+
+    static boolean isSet() {
+        return DEADLINE_NANOS.get() != null;
+    }
+
+    // Timeout for a call starting now: the time left until the deadline, at most max and at least 1 ms
+    // (0 would mean no timeout to the HTTP clients)
+    static Duration timeout(Duration max) {
+        Long deadline = DEADLINE_NANOS.get();
+        if (deadline == null) return max;
+        long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        return Duration.ofMillis(Math.max(1, Math.min(left, max.toMillis())));
+    }
+}
@@ -0,0 +1,301 @@
+package com.cmpe331.mainsystem;
+
+import com.cmpe331.common.Settings;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Protection for the main system's calls to the flight, pilot, crew and passenger services.
+//   circuit breaker  per service, over the last DOWNSTREAM_BREAKER_WINDOW attempts. Opens when at least
+//                    DOWNSTREAM_BREAKER_FAILURE_PERCENT of them failed (5xx, timeouts, refused connections),
+//                    rejects calls for DOWNSTREAM_BREAKER_OPEN_MS, then lets a single trial call through.
+//   hedging          per call, a second attempt is sent when the first has not answered within the p95 of recent
+//                    successful calls (at least DOWNSTREAM_HEDGE_MIN_MS); the first answer wins.
+//   retry budget     per service, hedges and retries of failed attempts share a token bucket that every call fills
+//                    by DOWNSTREAM_RETRY_BUDGET_PERCENT / 100, so extra attempts stay a fraction of the traffic.
+// 4xx answers and unresolvable host names are passed to the caller untouched and do not count against a service.
+class DownstreamGuard {
+
+    // Thrown without contacting the service while its breaker is open
+    static final class Unavailable extends RuntimeException {
+        final String service;
+
+        Unavailable(String service) {
+            super("Circuit breaker open for the " + service + " service");
+            this.service = service;
+        }
+    }
+
+    static final int STATE_CLOSED = 0, STATE_HALF_OPEN = 1, STATE_OPEN = 2;
+
+    static final class CircuitBreaker {
+        private final boolean[] failures;
+        private final int minCalls;
+        private final int failurePercent;
+        private final long openNanos;
+        private int next, recorded, failed;
+        private int state = STATE_CLOSED;
+        private long openedAt;
+        private boolean trialInFlight;
+
+        CircuitBreaker(int window, int failurePercent, long openMillis) {
+            this.failures = new boolean[Math.max(1, window)];
+            this.minCalls = Math.max(1, failures.length / 2);
+            this.failurePercent = failurePercent;
+            this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        }
+
+        synchronized boolean tryAcquire() {
+            if (state == STATE_OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) return false;
+                state = STATE_HALF_OPEN;
+                trialInFlight = false;
+            }
+            if (state == STATE_HALF_OPEN) {
+                if (trialInFlight) return false;
+                trialInFlight = true;
+            }
+            return true;
+        }
+
+        synchronized void record(boolean failure) {
+            if (state == STATE_HALF_OPEN) {
+                if (failure) open(); else reset();
+                return;
+            }
+            if (state == STATE_OPEN) return;
+            if (recorded == failures.length && failures[next]) failed--;
+            failures[next] = failure;
+            if (failure) failed++;
+            next = (next + 1) % failures.length;
+            if (recorded < failures.length) recorded++;
+            if (recorded >= minCalls && failed * 100 >= failurePercent * recorded) open();
+        }
+
+        synchronized boolean isClosed() { return state == STATE_CLOSED; }
+
+        synchronized int state() {
+            return state == STATE_OPEN && System.nanoTime() - openedAt >= openNanos ? STATE_HALF_OPEN : state;
+        }
+
+        private void open() {
+            state = STATE_OPEN;
+            openedAt = System.nanoTime();
+        }
+
+        private void reset() {
+            state = STATE_CLOSED;
+            Arrays.fill(failures, false);
+            next = recorded = failed = 0;
+        }
+    }
+
+    static final class RetryBudget {
+        private final double depositPerCall;
+        private final double capacity;
+        private double balance;
+
+        RetryBudget(int percent, int burst) {
+            this.depositPerCall = percent / 100.0;
+            this.capacity = burst;
+            this.balance = burst;
+        }
+
+        synchronized void deposit() { balance = Math.min(capacity, balance + depositPerCall); }
+
+        synchronized boolean tryWithdraw() {
+            if (balance < 1) return false;
+            balance -= 1;
+            return true;
+        }
+    }
+
+    // Recent successful latencies of one call; p95 is recomputed every 16 samples once 20 have been seen
+    static final class LatencyWindow {
+        private final long[] samples = new long[128];
+        private int next, count, sinceUpdate;
+        private volatile long p95Nanos = -1;
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) count++;
+            if (count >= 20 && (++sinceUpdate >= 16 || p95Nanos < 0)) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                p95Nanos = sorted[(int) Math.ceil(count * 0.95) - 1];
+                sinceUpdate = 0;
+            }
+        }
+
+        long p95Nanos() { return p95Nanos; }
+    }
+
+    private final class Service {
+        final String name;
+        final CircuitBreaker breaker = new CircuitBreaker(breakerWindow, breakerFailurePercent, breakerOpenMillis);
+        final RetryBudget budget = new RetryBudget(retryBudgetPercent, RETRY_BUDGET_BURST);
+
+        Service(String name) {
+            this.name = name;
+            metrics.breaker(name, breaker::state);
+        }
+    }
+
+    static final int RETRY_BUDGET_BURST = 10;
+
+    private final RosterMetrics metrics;
+    private final Executor executor;
+    private final int breakerWindow;
+    private final int breakerFailurePercent;
+    private final int breakerOpenMillis;
+    private final long hedgeMinNanos;
+    private final int retryBudgetPercent;
+    private final Map<String, Service> services = new ConcurrentHashMap<>();
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    DownstreamGuard(RosterMetrics metrics, Executor executor) {
+        this.metrics = metrics;
+        this.executor = executor;
+        this.breakerWindow = Settings.envInt("DOWNSTREAM_BREAKER_WINDOW", 20);
+        this.breakerFailurePercent = Settings.envInt("DOWNSTREAM_BREAKER_FAILURE_PERCENT", 50);
+        this.breakerOpenMillis = Settings.envInt("DOWNSTREAM_BREAKER_OPEN_MS", 5000);
+        this.hedgeMinNanos = TimeUnit.MILLISECONDS.toNanos(Settings.envInt("DOWNSTREAM_HEDGE_MIN_MS", 20));
+        this.retryBudgetPercent = Settings.envInt("DOWNSTREAM_RETRY_BUDGET_PERCENT", 10);
+    }
+
+    // Runs one logical request to a service. `call` names the endpoint for metrics and latency tracking.
+    <T> T call(String service, String call, Supplier<T> request) {
+        Service s = services.computeIfAbsent(service, Service::new);
+        if (!s.breaker.tryAcquire()) {
+            metrics.resilience(service, "rejected");
+            throw new Unavailable(service);
+        }
+        s.budget.deposit();
+        LatencyWindow latency = latencies.computeIfAbsent(call, c -> new LatencyWindow());
+        long p95 = latency.p95Nanos();
+
+        // Without a latency profile there is nothing to hedge against, so the attempt runs on the caller's thread
+        if (p95 < 0 || !s.breaker.isClosed()) return retryOnFailure(s, call, request, latency);
+
+        // attempts run on other threads and keep the roster deadline of the caller (CallDeadline)
+        CompletableFuture<T> first = CompletableFuture.supplyAsync(CallDeadline.propagate(() -> attempt(s, call, request, latency)), executor);
+        try {
+            return first.get(Math.max(p95, hedgeMinNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException slow) {
+            if (!s.breaker.isClosed() || !s.budget.tryWithdraw()) {
+                metrics.resilience(service, "budget_exhausted");
+                return await(first, call);
+            }
+            metrics.resilience(service, "hedged");
+            CompletableFuture<T> hedge = CompletableFuture.supplyAsync(CallDeadline.propagate(() -> attempt(s, call, request, latency)), executor);
+            return await(firstSuccess(first, hedge), call);
+        } catch (ExecutionException failed) {
+            if (!isRetryable(failed.getCause(), s)) throw unwrap(failed);
+            return attempt(s, call, request, latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted while calling " + call);
+        }
+    }
+
+    // Breaker and metrics only, for streamed responses that can be neither hedged nor retried once bytes went out
+    <T> T callOnce(String service, String call, Supplier<T> request) {
+        Service s = services.computeIfAbsent(service, Service::new);
+        if (!s.breaker.tryAcquire()) {
+            metrics.resilience(service, "rejected");
+            throw new Unavailable(service);
+        }
+        return attempt(s, call, request, latencies.computeIfAbsent(call, c -> new LatencyWindow()));
+    }
+
+    boolean isOpen(String service) {
+        Service s = services.get(service);
+        return s != null && s.breaker.state() == STATE_OPEN;
+    }
+
+    private <T> T retryOnFailure(Service s, String call, Supplier<T> request, LatencyWindow latency) {
+        try {
+            return attempt(s, call, request, latency);
+        } catch (RuntimeException e) {
+            if (!isRetryable(e, s)) throw e;
+            return attempt(s, call, request, latency);
+        }
+    }
+
+    // A failed attempt is retried once, if the service still looks healthy and the budget has a token
+    private boolean isRetryable(Throwable e, Service s) {
+        if (!isServiceFailure(e) || !s.breaker.isClosed()) return false;
+        if (!s.budget.tryWithdraw()) {
+            metrics.resilience(s.name, "budget_exhausted");
+            return false;
+        }
+        metrics.resilience(s.name, "retried");
+        return true;
+    }
+
+    private <T> T attempt(Service s, String call, Supplier<T> request, LatencyWindow latency) {
+        long start = System.nanoTime();
+        try {
+            T result = metrics.downstream(call, request);
+            latency.record(System.nanoTime() - start);
+            s.breaker.record(false);
+            return result;
+        } catch (RuntimeException e) {
+            s.breaker.record(isServiceFailure(e));
+            throw e;
+        }
+    }
+
+    // Completes with the first successful result, or with the last failure once both attempts failed
+    private static <T> CompletableFuture<T> firstSuccess(CompletableFuture<T> first, CompletableFuture<T> second) {
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<T> attempt : Arrays.asList(first, second)) {
+            attempt.whenComplete((result, error) -> {
+                if (error == null) winner.complete(result);
+                else if (failures.incrementAndGet() == 2) winner.completeExceptionally(error);
+            });
+        }
+        return winner;
+    }
+
+    private static <T> T await(CompletableFuture<T> future, String call) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted while calling " + call);
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        return e.getCause() instanceof RuntimeException runtime ? runtime : new ResourceAccessException(String.valueOf(e.getCause()));
+    }
+
+    // 5xx answers, timeouts and refused connections say something about the service; 4xx and DNS misses do not
+    static boolean isServiceFailure(Throwable e) {
+        if (e instanceof HttpServerErrorException) return true;
+        return e instanceof ResourceAccessException && !(rootCause(e) instanceof UnknownHostException);
+    }
+
+    // The docker host name of a service does not resolve or nobody listens there (running outside docker)
+    static boolean isUnreachable(Throwable e) {
+        Throwable root = rootCause(e);
+        return root instanceof UnknownHostException || root instanceof ConnectException;
+    }
+
+    private static Throwable rootCause(Throwable e) {
+        while (e.getCause() != null && e.getCause() != e) e = e.getCause();
+        return e;
+    }
+}
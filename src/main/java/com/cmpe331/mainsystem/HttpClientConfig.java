@@ -0,0 +1,168 @@
+package com.cmpe331.mainsystem;
+
+import com.cmpe331.common.Settings;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+// HTTP client used for MainSystem -> service traffic (ports 8081-8084).
+// Default is a pooled HTTP/1.1 keep-alive client. HTTP_CLIENT_HTTP2=true switches to the JDK client with HTTP/2 (h2c).
+@Configuration
+class HttpClientConfig {
+
+    static final int CONNECT_TIMEOUT_SECONDS = 5;
+    static final int READ_TIMEOUT_SECONDS = 10;
+
+    @Bean(destroyMethod = "close")
+    PoolingHttpClientConnectionManager downstreamConnectionManager() {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(Settings.envInt("HTTP_POOL_MAX_TOTAL", 200))
+                .setMaxConnPerRoute(Settings.envInt("HTTP_POOL_MAX_PER_ROUTE", 50))
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                // LIFO keeps a small set of hot connections busy, the rest go idle and get evicted
+                .setConnPoolPolicy(PoolReusePolicy.LIFO)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofSeconds(CONNECT_TIMEOUT_SECONDS))
+                        .setSocketTimeout(Timeout.ofSeconds(READ_TIMEOUT_SECONDS))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .setTimeToLive(TimeValue.ofMinutes(5))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    CloseableHttpClient downstreamHttpClient(PoolingHttpClientConnectionManager connectionManager) {
+        // Tomcat drops idle keep-alive connections after 20s, so we give them up a bit earlier
+        long idleSeconds = Settings.envInt("HTTP_POOL_IDLE_EVICT_SECONDS", 15);
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy((response, context) -> {
+                    TimeValue announced = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    TimeValue max = TimeValue.ofSeconds(idleSeconds);
+                    return TimeValue.isPositive(announced) && announced.compareTo(max) < 0 ? announced : max;
+                })
+                .evictIdleConnections(TimeValue.ofSeconds(idleSeconds))
+                .evictExpiredConnections()
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        // fail fast when the pool is exhausted instead of queueing behind the read timeout
+                        .setConnectionRequestTimeout(Timeout.ofSeconds(Settings.envInt("HTTP_POOL_ACQUIRE_TIMEOUT_SECONDS", 2)))
+                        .setResponseTimeout(Timeout.ofSeconds(READ_TIMEOUT_SECONDS))
+                        .build())
+                .build();
+    }
+
+    // httpcomponents.httpclient.pool.* gauges (leased, available, pending, max) for the downstream pool
+    @Bean
+    MeterBinder downstreamPoolMetrics(PoolingHttpClientConnectionManager connectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "downstream");
+    }
+
+    // Both factories give calls made under a roster deadline only the time left until it (see CallDeadline)
+    @Bean
+    ClientHttpRequestFactory downstreamRequestFactory(CloseableHttpClient downstreamHttpClient) {
+        if (isHttp2Enabled()) {
+            HttpClient jdkClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofSeconds(CONNECT_TIMEOUT_SECONDS))
+                    .executor(Executors.newVirtualThreadPerTaskExecutor())
+                    .build();
+            return (uri, method) -> {
+                // the JDK factory holds nothing but the client and a read timeout, so one per request is cheap
+                JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(jdkClient);
+                factory.setReadTimeout(CallDeadline.timeout(Duration.ofSeconds(READ_TIMEOUT_SECONDS)));
+                return factory.createRequest(uri, method);
+            };
+        }
+        return new DeadlineRequestFactory(downstreamHttpClient);
+    }
+
+    static final class DeadlineRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+        DeadlineRequestFactory(org.apache.hc.client5.http.classic.HttpClient httpClient) {
+            super(httpClient);
+        }
+
+        // The client's defaults (read timeout, pool acquire timeout), shortened to the caller's deadline
+        @Override
+        protected RequestConfig createRequestConfig(Object client) {
+            RequestConfig config = super.createRequestConfig(client);
+            if (!CallDeadline.isSet()) return config;
+            if (config == null) config = RequestConfig.DEFAULT;
+            return RequestConfig.copy(config)
+                    .setResponseTimeout(bounded(config.getResponseTimeout(), READ_TIMEOUT_SECONDS))
+                    .setConnectionRequestTimeout(bounded(config.getConnectionRequestTimeout(), READ_TIMEOUT_SECONDS))
+                    .build();
+        }
+
+        private static Timeout bounded(Timeout timeout, int fallbackSeconds) {
+            Duration max = timeout == null || timeout.isDisabled() ? Duration.ofSeconds(fallbackSeconds) : Duration.ofMillis(timeout.toMilliseconds());
+            return Timeout.of(CallDeadline.timeout(max));
+        }
+    }
+
+    static boolean isHttp2Enabled() {
+        String value = System.getenv("HTTP_CLIENT_HTTP2");
+        if (value == null) value = System.getProperty("HTTP_CLIENT_HTTP2");
+        return Boolean.parseBoolean(value);
+    }
+}
+
+@RestController
+@RequestMapping("/api/roster/admin")
+class HttpPoolController {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    public HttpPoolController(PoolingHttpClientConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    @GetMapping("/http-pool")
+    public Map<String, Object> getPoolStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("protocol", HttpClientConfig.isHttp2Enabled() ? "HTTP/2 (JDK client, pool not used)" : "HTTP/1.1 keep-alive");
+        result.put("total", toMap(connectionManager.getTotalStats()));
+
+        Map<String, Object> routes = new LinkedHashMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            routes.put(route.getTargetHost().toURI(), toMap(connectionManager.getStats(route)));
+        }
+        result.put("routes", routes);
+        return result;
+    }
+
+    private Map<String, Object> toMap(PoolStats stats) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("leased", stats.getLeased());
+        m.put("available", stats.getAvailable());
+        m.put("pending", stats.getPending());
+        m.put("max", stats.getMax());
+        return m;
+    }
+}
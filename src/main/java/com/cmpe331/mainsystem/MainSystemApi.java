@@ -1,32 +1,72 @@
 package com.cmpe331.mainsystem;
 
+import com.cmpe331.common.SeatingPlan;
+import com.cmpe331.common.Settings;
 import jakarta.persistence.*;
+import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpMethod; 
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
-import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static org.springframework.security.config.Customizer.withDefaults;
@@ -34,9 +74,13 @@ import static org.springframework.security.config.Customizer.withDefaults;
 @SpringBootApplication
 public class MainSystemApi {
 
+    private static final Logger log = LoggerFactory.getLogger(MainSystemApi.class);
+
     public static void main(String[] args) {
         System.setProperty("server.port", "8080");
         System.setProperty("spring.datasource.url", "jdbc:sqlite:roster_db.sqlite");
+        // batch roster streams can run for a long time
+        System.setProperty("spring.mvc.async.request-timeout", "30m");
         String mongoEnv = System.getenv("SPRING_DATA_MONGODB_URI");
         if (mongoEnv == null || mongoEnv.isEmpty()) {
             System.setProperty("spring.data.mongodb.uri", "mongodb://localhost:27017/rosterdb");
@@ -44,12 +88,141 @@ public class MainSystemApi {
         SpringApplication.run(MainSystemApi.class, args);
     }
 
+    // Canonical form of a flight id: "tk 1001" -> "TK1001". Stored next to the raw id so lookups hit the index.
+    static String normalizeFlightId(String id) {
+        if (id == null) return null;
+        return id.replaceAll("\\s+", "").toUpperCase();
+    }
+
+    // One-time migration for rosters saved before the normalized column existed (ddl-auto adds it as NULL).
+    // SQL is filled in before the app serves requests; Mongo may be down, so its index and backfill run in the background
+    // (index auto-creation would stop the app from starting without Mongo).
+    @Bean
+    CommandLineRunner backfillNormalizedFlightIds(RosterSqlRepository sqlRepo, RosterMongoRepository mongoRepo, MongoTemplate mongoTemplate) {
+        return args -> {
+            int sqlRows = 0;
+            List<RosterSqlEntity> sqlBatch;
+            while (!(sqlBatch = sqlRepo.findByNormalizedFlightIdIsNull(PageRequest.of(0, 500))).isEmpty()) {
+                for (RosterSqlEntity entity : sqlBatch) entity.setFlightId(entity.getFlightId());
+                sqlRepo.saveAll(sqlBatch);
+                sqlRows += sqlBatch.size();
+            }
+            if (sqlRows > 0) log.info("Normalized flight ids of {} SQL rosters", sqlRows);
+
+            Thread.ofVirtual().name("roster-id-backfill").start(() -> {
+                try {
+                    new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext())
+                            .resolveIndexFor(RosterDocument.class)
+                            .forEach(mongoTemplate.indexOps(RosterDocument.class)::ensureIndex);
+                    int mongoDocs = 0;
+                    List<RosterDocument> mongoBatch;
+                    while (!(mongoBatch = mongoRepo.findByNormalizedFlightIdIsNull(PageRequest.of(0, 500))).isEmpty()) {
+                        for (RosterDocument doc : mongoBatch) doc.setFlightId(doc.getFlightId());
+                        mongoRepo.saveAll(mongoBatch);
+                        mongoDocs += mongoBatch.size();
+                    }
+                    if (mongoDocs > 0) log.info("Normalized flight ids of {} Mongo rosters", mongoDocs);
+                } catch (Exception e) {
+                    log.warn("Mongo roster id backfill skipped: {}", e.getMessage());
+                }
+            });
+        };
+    }
+
+    // Fills roster_summaries once from the SQL rosters saved before the table existed (newest roster per flight).
+    // Each blob is read a single time here so the flight list never has to.
     @Bean
-    public RestTemplate restTemplate(RestTemplateBuilder builder) {
+    CommandLineRunner backfillRosterSummaries(RosterSqlRepository sqlRepo, RosterSummaryRepository summaryRepo, ObjectMapper mapper) {
+        return args -> {
+            if (summaryRepo.count() > 0) return;
+            RosterCodec codec = new RosterCodec(mapper, Settings.envString("ROSTER_CODEC", "smile-lz4"));
+            Map<String, RosterSummary> latest = new LinkedHashMap<>();
+            Page<RosterSqlEntity> page = sqlRepo.findAll(PageRequest.of(0, 200, Sort.by("id")));
+            while (true) {
+                for (RosterSqlEntity entity : page) {
+                    try {
+                        Map<String, Object> rosterData = codec.decode(entity.getRosterBlob(), entity.getRosterData());
+                        Map flightInfo = (Map) rosterData.get("flightInfo");
+                        String flightNumber = normalizeFlightId(flightInfo != null ? (String) flightInfo.get("flightNumber") : null);
+                        if (flightNumber == null || flightNumber.isEmpty()) continue;
+                        RosterSummary previous = latest.get(flightNumber);
+                        if (previous != null && previous.getSavedAt() != null && entity.getGeneratedDate() != null
+                                && previous.getSavedAt().after(entity.getGeneratedDate())) continue;
+                        latest.put(flightNumber, RosterSummary.from(flightNumber, flightInfo, entity.getGeneratedDate(), "sql"));
+                    } catch (Exception e) {
+                        log.warn("SQL roster {} left out of the roster summaries: {}", entity.getId(), e.getMessage());
+                    }
+                }
+                if (!page.hasNext()) break;
+                page = sqlRepo.findAll(page.nextPageable());
+            }
+            summaryRepo.saveAll(latest.values());
+            if (!latest.isEmpty()) log.info("Built {} roster summaries", latest.size());
+        };
+    }
+
+    // Rewrites rosters still stored as JSON text in the codec's format, so reading a roster never writes. GET tags a
+    // text roster with the ETag of the blob it becomes here, so the rewrite does not change a roster's ETag.
+    // SQL is done before the app serves requests; Mongo may be down, so it runs in the background.
+    @Bean
+    CommandLineRunner backfillRosterBlobs(RosterSqlRepository sqlRepo, RosterMongoRepository mongoRepo, ObjectMapper mapper) {
+        return args -> {
+            RosterCodec codec = new RosterCodec(mapper, Settings.envString("ROSTER_CODEC", "smile-lz4"));
+            int sqlRows = 0;
+            long lastId = 0;
+            List<RosterSqlEntity> sqlBatch;
+            while (!(sqlBatch = sqlRepo.findByRosterBlobIsNullAndIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, 500))).isEmpty()) {
+                for (RosterSqlEntity entity : sqlBatch) {
+                    lastId = entity.getId();
+                    try {
+                        sqlRows += sqlRepo.migrateToBlob(entity.getId(), codec.encode(codec.decode(null, entity.getRosterData())));
+                    } catch (Exception e) {
+                        log.warn("SQL roster {} left as JSON text: {}", entity.getId(), e.getMessage());
+                    }
+                }
+            }
+            if (sqlRows > 0) log.info("Rewrote {} SQL rosters as blobs", sqlRows);
+
+            Thread.ofVirtual().name("roster-blob-backfill").start(() -> {
+                try {
+                    int mongoDocs = 0;
+                    String lastDocId = "000000000000000000000000"; // below every ObjectId
+                    List<RosterDocument> mongoBatch;
+                    while (!(mongoBatch = mongoRepo.findByRosterBlobIsNullAndIdGreaterThanOrderByIdAsc(lastDocId, PageRequest.of(0, 500))).isEmpty()) {
+                        for (RosterDocument doc : mongoBatch) {
+                            lastDocId = doc.getId();
+                            if (doc.getRosterData() == null) continue;
+                            mongoRepo.migrateToBlob(doc.getId(), codec.encode(doc.getRosterData()));
+                            mongoDocs++;
+                        }
+                    }
+                    if (mongoDocs > 0) log.info("Rewrote {} Mongo rosters as blobs", mongoDocs);
+                } catch (Exception e) {
+                    log.warn("Mongo roster blob backfill skipped: {}", e.getMessage());
+                }
+            });
+        };
+    }
+
+    // Guards the roster history against two appends taking the same version number; also serves its lookups
+    @Bean
+    CommandLineRunner createRosterVersionIndex(RosterVersionRepository versionRepo) {
+        return args -> versionRepo.createVersionIndex();
+    }
+
+    // The main system uses Boot's ObjectMapper everywhere (RestTemplate converters, controller, NDJSON lines);
+    // Blackbird swaps its reflective property access for generated accessors
+    @Bean
+    public Module blackbirdModule() {
+        return new BlackbirdModule();
+    }
+
+    // Connect/read timeouts and pooling are configured on the request factory (see HttpClientConfig)
+    @Bean
+    public RestTemplate restTemplate(RestTemplateBuilder builder, ClientHttpRequestFactory downstreamRequestFactory) {
         return builder
+                .requestFactory(() -> downstreamRequestFactory)
                 .basicAuthentication("admin", "password")
-                .setConnectTimeout(Duration.ofSeconds(5))
-                .setReadTimeout(Duration.ofSeconds(10))
                 .build();
     }
 }
@@ -62,7 +235,9 @@ class SecurityConfig {
         http.csrf(c -> c.disable())
             .cors(cors -> cors.configurationSource(corsConfigurationSource()))
             .authorizeHttpRequests(auth -> auth
+                .requestMatchers("/actuator/health", "/actuator/prometheus").permitAll()
                 .requestMatchers(HttpMethod.POST, "/api/roster/save").hasRole("ADMIN")
+                .requestMatchers("/api/roster/admin/**").hasRole("ADMIN")
                 .requestMatchers("/api/roster/**").hasAnyRole("ADMIN", "READER")
                 .anyRequest().authenticated())
             .httpBasic(withDefaults());
@@ -95,21 +270,49 @@ class SecurityConfig {
 @CrossOrigin(origins = "*")
 class RosterController {
 
+    private static final Logger log = LoggerFactory.getLogger(RosterController.class);
+
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
     private final RosterSqlRepository sqlRepo;
     private final RosterMongoRepository mongoRepo;
+    private final RosterSummaryRepository summaryRepo;
+    private final RosterMetrics metrics;
+    private final DownstreamGuard downstream;
+    private final RosterStore rosterStore;
+    private final RosterHistory rosterHistory;
+    private final RosterCodec rosterCodec;
 
     private final String FLIGHT_API_BASE;
     private final String PILOT_API;
     private final String CREW_API;
     private final String PASSENGER_API;
 
-    public RosterController(RestTemplate restTemplate, RosterSqlRepository sqlRepo, RosterMongoRepository mongoRepo) {
+    // Downstream calls of one roster run concurrently on virtual threads, bounded by a single deadline
+    private final ExecutorService fanOutExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final long ROSTER_DEADLINE_MS;
+    private final int BATCH_PARALLELISM;
+    private final int LOG_SAMPLE_EVERY;
+
+    // Pilot and crew lists change a few times a day, so the main system keeps indexed snapshots of them
+    private final ReferenceDataCache<PilotDto> pilotCache;
+    private final ReferenceDataCache<CrewDto> crewCache;
+    private final RosterMemo rosterMemo;
+    // Compiled seating plans keyed by the plan text itself, so an edited plan can never hit a stale layout
+    private final Map<String, SeatAllocator.Layout> seatLayouts = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, SeatAllocator.Layout> eldest) { return size() > 64; }
+    });
+
+    public RosterController(RestTemplate restTemplate, ObjectMapper objectMapper, RosterSqlRepository sqlRepo, RosterMongoRepository mongoRepo,
+                            RosterSummaryRepository summaryRepo, RosterOutboxRepository outboxRepo, RosterVersionRepository versionRepo,
+                            PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
         this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
         this.sqlRepo = sqlRepo;
         this.mongoRepo = mongoRepo;
-        this.objectMapper = new ObjectMapper();
+        this.summaryRepo = summaryRepo;
+        this.metrics = new RosterMetrics(meterRegistry);
+        this.downstream = new DownstreamGuard(metrics, fanOutExecutor);
 
         String flightHost = System.getenv("FLIGHT_HOST"); if (flightHost == null) flightHost = "flight-info-api";
         String pilotHost = System.getenv("PILOT_HOST"); if (pilotHost == null) pilotHost = "pilot-api";
@@ -120,152 +323,248 @@ class RosterController {
         this.PILOT_API = "http://" + pilotHost + ":8082/api/pilots";
         this.CREW_API = "http://" + crewHost + ":8083/api/cabin-crew";
         this.PASSENGER_API = "http://" + passengerHost + ":8084/api/passengers";
+
+        // Kept below the 10s read timeout so one hung service yields a partial roster instead of a stalled request
+        this.ROSTER_DEADLINE_MS = Settings.envInt("ROSTER_DEADLINE_MS", 8000);
+        this.BATCH_PARALLELISM = Settings.envInt("ROSTER_BATCH_PARALLELISM", 8);
+        this.LOG_SAMPLE_EVERY = Settings.envInt("ROSTER_LOG_SAMPLE_EVERY", 100);
+
+        int cacheTtl = Settings.envInt("REFERENCE_CACHE_TTL_SECONDS", 300);
+        int cacheMax = Settings.envInt("REFERENCE_CACHE_MAX_ENTRIES", 50000);
+        this.pilotCache = new ReferenceDataCache<>("pilots", () -> downstream.call("pilot", "pilots", () -> restTemplate.getForObject(PILOT_API, PilotDto[].class)),
+                p -> Collections.singletonList(p.allowedVehicleType()), PilotDto::seniorityLevel,
+                fanOutExecutor, cacheTtl, cacheMax);
+        this.crewCache = new ReferenceDataCache<>("cabinCrew", () -> downstream.call("crew", "cabin-crew", () -> restTemplate.getForObject(CREW_API, CrewDto[].class)),
+                CrewDto::allowedVehicles, CrewDto::type,
+                fanOutExecutor, cacheTtl, cacheMax);
+        this.rosterMemo = new RosterMemo(Settings.envInt("ROSTER_MEMO_MAX_ENTRIES", 1000), Settings.envInt("ROSTER_MEMO_TTL_SECONDS", 60));
+        this.rosterCodec = new RosterCodec(objectMapper, Settings.envString("ROSTER_CODEC", "smile-lz4"));
+        this.rosterHistory = new RosterHistory(versionRepo, new TransactionTemplate(transactionManager), objectMapper,
+                Settings.envInt("ROSTER_HISTORY_SNAPSHOT_EVERY", 16));
+        this.rosterStore = new RosterStore(sqlRepo, mongoRepo, summaryRepo, outboxRepo, rosterHistory, rosterCodec, metrics,
+                Settings.envInt("ROSTER_WRITE_BEHIND", 0) == 1,
+                Settings.envInt("ROSTER_WRITE_BEHIND_BATCH", 500), Settings.envInt("ROSTER_WRITE_BEHIND_LINGER_MS", 50));
+        this.rosterStore.start();
+    }
+
+    @PreDestroy
+    void shutdownFanOut() {
+        fanOutExecutor.shutdownNow();
+        rosterStore.stop();
+    }
+
+    // Per-request debug lines are written for one request in ROSTER_LOG_SAMPLE_EVERY (all of its lines, 1 = every request),
+    // and only while DEBUG is on for this logger. Warnings and errors are never sampled.
+    private boolean traceRequest() {
+        return log.isDebugEnabled() && (LOG_SAMPLE_EVERY <= 1 || ThreadLocalRandom.current().nextInt(LOG_SAMPLE_EVERY) == 0);
+    }
+
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
+    private ResponseEntity<?> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(REVALIDATE).build();
+    }
+
+    // Calls started from within a roster part inherit its deadline
+    private <T> CompletableFuture<T> callAsync(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(CallDeadline.propagate(call), fanOutExecutor);
+    }
+
+    // The downstream calls of the part end by the deadline too: their read timeout is the time left (CallDeadline)
+    private <T> CompletableFuture<T> callAsync(long deadlineNanos, Supplier<T> call) {
+        return CompletableFuture.supplyAsync(CallDeadline.bind(deadlineNanos, call), fanOutExecutor);
+    }
+
+    // Waits for one part of the roster until the shared deadline. Failures behave like before (empty section),
+    // a timeout or an open breaker additionally records the section as missing so the caller can flag the roster as partial.
+    // Cancelling does not stop a call in progress; it is ended by its deadline-bound read timeout.
+    private <T> T awaitPart(CompletableFuture<T> future, long deadlineNanos, String section, List<String> missing) {
+        try {
+            return future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            missing.add(section);
+            log.atWarn().addKeyValue("section", section).log("Roster deadline exceeded");
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            missing.add(section);
+            return null;
+        } catch (ExecutionException e) {
+            // the service's breaker is open: reported like a timeout instead of an empty section
+            if (e.getCause() instanceof DownstreamGuard.Unavailable) missing.add(section);
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        }
     }
 
     // --- ID NORMALIZATION METHOD ---
-    private String normalizeId(String id) {
-        if (id == null) return null;
+    String normalizeId(String id) {
         // removing spaces and converting to uppercase just in case: "TK 1001" -> "TK1001"
-        return id.replaceAll("\\s+", "").toUpperCase();
+        return MainSystemApi.normalizeFlightId(id);
     }
 
+    public ResponseEntity<?> generateRoster(String rawFlightId, boolean forceNew) {
+        return generateRoster(rawFlightId, forceNew, null);
+    }
+
+    // Saved and memoized rosters carry a strong ETag; a matching If-None-Match is answered with 304
     @GetMapping("/generate/{flightId}")
     public ResponseEntity<?> generateRoster(@PathVariable("flightId") String rawFlightId, 
-                                            @RequestParam(value = "forceNew", required = false) boolean forceNew) {
+                                            @RequestParam(value = "forceNew", required = false) boolean forceNew,
+                                            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         
         String flightId = normalizeId(rawFlightId);
-        System.out.println("Processing Roster for Normalized ID: " + flightId + " (ForceNew: " + forceNew + ")");
+        boolean trace = traceRequest();
+        if (trace) log.atDebug().addKeyValue("flightId", flightId).addKeyValue("forceNew", forceNew).log("Processing roster");
 
         if (!forceNew) {
             try {
-                // 1. Standard Search
-                List<RosterSqlEntity> sqlList = sqlRepo.findByFlightIdOrderByGeneratedDateDesc(flightId);
+                // 1. Indexed lookup on the normalized id (also matches rows saved as "TK 1001")
+                List<RosterSqlEntity> sqlList = sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(flightId);
                 
                 Map<String, Object> finalData = null;
+                String etag = null;
+                String store = "sql";
                 
                 if (!sqlList.isEmpty()) {
-                    System.out.println("Found in SQL directly.");
-                    finalData = objectMapper.readValue(sqlList.get(0).getRosterData(), new TypeReference<Map<String, Object>>(){});
+                    if (trace) log.atDebug().addKeyValue("flightId", flightId).addKeyValue("store", "sql").log("Roster found");
+                    RosterSqlEntity saved = sqlList.get(0);
+                    if (saved.getRosterBlob() == null) {
+                        // JSON text not yet rewritten by backfillRosterBlobs: tagged as the blob it will become
+                        finalData = rosterCodec.decode(null, saved.getRosterData());
+                        etag = RosterMemo.etagOf(rosterCodec.encode(finalData));
+                    } else {
+                        etag = RosterMemo.etagOf(saved.getRosterBlob());
+                    }
+                    if (RosterMemo.matches(ifNoneMatch, etag)) {
+                        metrics.generated(store, "not_modified");
+                        return notModified(etag);
+                    }
+                    if (finalData == null) finalData = rosterCodec.decode(saved.getRosterBlob());
                 } 
                 
-                // 2. Backup Search (Brute force scan if direct lookup fails)
+                // 2. Mongo check
                 if (finalData == null) {
-                    System.out.println("Direct match failed. Scanning all records...");
-                    List<RosterSqlEntity> all = sqlRepo.findAll();
-                    for (RosterSqlEntity ent : all) {
-                        String dbId = normalizeId(ent.getFlightId());
-                        if (dbId != null && dbId.equals(flightId)) {
-                            System.out.println("Found in SQL via scan -> DB ID: " + ent.getFlightId());
-                            finalData = objectMapper.readValue(ent.getRosterData(), new TypeReference<Map<String, Object>>(){});
-                            break;
+                    List<RosterDocument> mongoList = mongoRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(flightId);
+                    if (!mongoList.isEmpty()) {
+                        if (trace) log.atDebug().addKeyValue("flightId", flightId).addKeyValue("store", "mongo").log("Roster found");
+                        store = "mongo";
+                        RosterDocument saved = mongoList.get(0);
+                        if (saved.getRosterBlob() != null) {
+                            finalData = rosterCodec.decode(saved.getRosterBlob());
+                            etag = RosterMemo.etagOf(saved.getRosterBlob());
+                        } else {
+                            finalData = saved.getRosterData();
+                            etag = RosterMemo.etagOf(rosterCodec.encode(finalData));
                         }
                     }
                 }
 
-                // 3. Mongo check
-                if (finalData == null) {
-                    List<RosterDocument> mongoList = mongoRepo.findByFlightIdOrderByGeneratedDateDesc(flightId);
-                    if (!mongoList.isEmpty()) {
-                        System.out.println("Found in Mongo.");
-                        finalData = mongoList.get(0).getRosterData();
-                    }
+                if (finalData != null) {
+                    boolean unchanged = RosterMemo.matches(ifNoneMatch, etag);
+                    metrics.generated(store, unchanged ? "not_modified" : "hit");
+                    if (unchanged) return notModified(etag);
+                    return ResponseEntity.ok().eTag(etag).cacheControl(REVALIDATE).body(finalData);
                 }
 
-                if (finalData != null) return ResponseEntity.ok(finalData);
-
             } catch (Exception e) { 
-                System.err.println("DB Load Error: " + e.getMessage()); 
+                log.atWarn().addKeyValue("flightId", flightId).log("DB load error: {}", e.getMessage());
             }
         }
 
-        System.out.println("No DB record found. Creating new from services...");
+        if (trace) log.atDebug().addKeyValue("flightId", flightId).log("No saved roster, generating from services");
 
         // If no record found, create a new one
         Map<String, Object> response = new HashMap<>();
         try {
-            Map flight = fetchWithFallback(FLIGHT_API_BASE + "/" + rawFlightId, "Flight");
-            
-            // If raw ID fails, try with normalized one
-            if (flight == null && !rawFlightId.equals(flightId)) {
-                 flight = fetchWithFallback(FLIGHT_API_BASE + "/" + flightId, "Flight");
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ROSTER_DEADLINE_MS);
+            List<String> missing = new ArrayList<>();
+
+            // Calls that only need the flight id start right away, alongside the flight lookup
+            CompletableFuture<Map> flightFuture = callAsync(deadline, () -> {
+                Map f = fetchWithFallback(FLIGHT_API_BASE + "/" + rawFlightId, "Flight");
+                // If raw ID fails, try with normalized one
+                if (f == null && !rawFlightId.equals(flightId)) {
+                    f = fetchWithFallback(FLIGHT_API_BASE + "/" + flightId, "Flight");
+                }
+                return f;
+            });
+            CompletableFuture<Map> sharedInfoFuture = callAsync(deadline, () -> downstream.call("flight", "shared-info",
+                    () -> restTemplate.getForObject(FLIGHT_API_BASE + "/" + flightId + "/shared-info", Map.class)));
+            CompletableFuture<PassengerDto[]> passengerFuture = callAsync(deadline, () -> downstream.call("passenger", "passengers",
+                    () -> restTemplate.getForObject(PASSENGER_API + "/flight/" + rawFlightId, PassengerDto[].class)));
+
+            Map flight = awaitPart(flightFuture, deadline, "flightInfo", missing);
+            if (flight == null) {
+                sharedInfoFuture.cancel(true);
+                passengerFuture.cancel(true);
+                if (flightFuture.isCompletedExceptionally() && !flightFuture.isCancelled()) {
+                    metrics.generated("services", "unavailable");
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Collections.singletonMap("error", "Flight service unavailable"));
+                }
+                metrics.generated("services", missing.isEmpty() ? "not_found" : "timeout");
+                if (!missing.isEmpty()) return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(Collections.singletonMap("error", "Flight service timed out"));
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Collections.singletonMap("error", "Flight not found"));
             }
 
-            if (flight == null) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Collections.singletonMap("error", "Flight not found"));
-            
-            // Shared Info
-            try {
-                Map sharedInfo = restTemplate.getForObject(FLIGHT_API_BASE + "/" + flightId + "/shared-info", Map.class);
-                if (sharedInfo != null) flight.put("sharedDetails", sharedInfo);
-            } catch (Exception e) { }
-            
-            response.put("flightInfo", flight);
             Map vehicle = (Map) flight.get("vehicleType");
             String vehicleModel = ((String) vehicle.get("modelName"));
             int distance = (flight.get("distanceKm") instanceof Number) ? ((Number) flight.get("distanceKm")).intValue() : 0;
 
-            // Pilots section
-            List<Map> selectedPilots = new ArrayList<>();
-            try {
-                Map[] pilotArray = restTemplate.getForObject(PILOT_API, Map[].class);
-                if (pilotArray != null) {
-                    List<Map> suitable = Arrays.stream(pilotArray)
-                        .filter(p -> {
-                            String allowed = (String) p.get("allowedVehicleType");
-                            int range = (p.get("allowedRangeKm") instanceof Number) ? ((Number) p.get("allowedRangeKm")).intValue() : 0;
-                            boolean vehicleMatch = allowed != null && allowed.toLowerCase().contains(vehicleModel.toLowerCase());
-                            return vehicleMatch && range >= distance;
-                        }).collect(Collectors.toList());
-
-                    Optional<Map> senior = suitable.stream().filter(p -> "SENIOR".equalsIgnoreCase((String)p.get("seniorityLevel"))).findFirst();
-                    Optional<Map> junior = suitable.stream().filter(p -> "JUNIOR".equalsIgnoreCase((String)p.get("seniorityLevel"))).findFirst();
-                    if (senior.isPresent() && junior.isPresent()) {
-                        selectedPilots.add(senior.get());
-                        selectedPilots.add(junior.get());
-                    }
+            // Pilot and crew selection depend on the vehicle, so they start once the flight payload is in
+            CompletableFuture<Selection<PilotDto>> pilotFuture = callAsync(deadline, () -> pickPilots(vehicleModel, distance));
+            CompletableFuture<Selection<CrewDto>> crewFuture = callAsync(deadline, () -> pickCrew(vehicleModel));
+
+            // Shared Info
+            Map sharedInfo = awaitPart(sharedInfoFuture, deadline, "sharedInfo", missing);
+            byte[] flightFingerprint = objectMapper.writeValueAsBytes(flight), sharedFingerprint = objectMapper.writeValueAsBytes(sharedInfo);
+            // the shared details go on a copy so the fetched payload stays as delivered
+            Map<String, Object> flightInfo = new LinkedHashMap<>(flight);
+            if (sharedInfo != null) flightInfo.put("sharedDetails", sharedInfo);
+            response.put("flightInfo", flightInfo);
+
+            PassengerDto[] passArray = awaitPart(passengerFuture, deadline, "passengers", missing);
+            // flight (with its vehicle type), shared details and passengers as delivered, before seats are filled in
+            String inputFingerprint = RosterMemo.etagOf(flightFingerprint, sharedFingerprint, objectMapper.writeValueAsBytes(passArray));
+
+            // A roster memoized from these same inputs and pilot/crew snapshots skips selection and seat assignment;
+            // any flight, vehicle or passenger change shows up as a different fingerprint
+            if (!forceNew && missing.isEmpty()) {
+                RosterMemo.Entry memoized = rosterMemo.get(flightId, inputFingerprint, pilotCache.version(), crewCache.version());
+                if (memoized != null) {
+                    boolean unchanged = RosterMemo.matches(ifNoneMatch, memoized.etag);
+                    metrics.generated("memo", unchanged ? "not_modified" : "hit");
+                    if (unchanged) return notModified(memoized.etag);
+                    return ResponseEntity.ok().eTag(memoized.etag).cacheControl(REVALIDATE).body(memoized.roster);
                 }
-            } catch (Exception e) { }
+            }
+
+            // Pilots section
+            Selection<PilotDto> pilotPick = awaitPart(pilotFuture, deadline, "pilots", missing);
+            List<PilotDto> selectedPilots = pilotPick != null ? pilotPick.members() : new ArrayList<>();
             response.put("pilots", selectedPilots);
 
             // Cabin Crew section
-            List<Map> selectedCrew = new ArrayList<>();
-            try {
-                Map[] crewArray = restTemplate.getForObject(CREW_API, Map[].class);
-                if (crewArray != null) {
-                    List<Map> suitableCrew = Arrays.stream(crewArray)
-                        .filter(c -> {
-                            List<String> allowed = (List<String>) c.get("allowedVehicles");
-                            return allowed != null && allowed.stream().anyMatch(v -> v.toLowerCase().contains(vehicleModel.toLowerCase()));
-                        }).collect(Collectors.toList());
-
-                    List<Map> chiefs = suitableCrew.stream().filter(c -> "CHIEF".equals(c.get("type"))).collect(Collectors.toList());
-                    List<Map> chefs = suitableCrew.stream().filter(c -> "CHEF".equals(c.get("type"))).collect(Collectors.toList());
-                    List<Map> others = suitableCrew.stream().filter(c -> "REGULAR".equals(c.get("type"))).collect(Collectors.toList());
-
-                    if (!chiefs.isEmpty()) selectedCrew.add(chiefs.get(0));
-                    if (!chefs.isEmpty()) selectedCrew.add(chefs.get(0));
-                    selectedCrew.addAll(others.stream().limit(4).collect(Collectors.toList()));
-                }
-            } catch (Exception e) { }
+            Selection<CrewDto> crewPick = awaitPart(crewFuture, deadline, "cabinCrew", missing);
+            List<CrewDto> selectedCrew = crewPick != null ? crewPick.members() : new ArrayList<>();
             response.put("cabinCrew", selectedCrew);
 
             // Passenger list
-            List<Map> allPassengers = new ArrayList<>();
-            try {
-                Map[] passArray = restTemplate.getForObject(PASSENGER_API + "/flight/" + rawFlightId, Map[].class); 
-                if (passArray != null) {
-                    allPassengers = new ArrayList<>(Arrays.asList(passArray));
-                    assignMissingSeatsSmartly(allPassengers, vehicle);
-                }
-            } catch (Exception e) { }
+            List<PassengerDto> allPassengers = new ArrayList<>();
+            if (passArray != null) {
+                allPassengers = assignMissingSeatsSmartly(Arrays.asList(passArray), vehicle);
+            }
             response.put("passengers", allPassengers);
 
             // Food menu
             List<String> flightMenu = new ArrayList<>();
             try {
                 flightMenu.add((String) vehicle.get("standardMenuDescription"));
-                for(Map crew : selectedCrew) {
-                    if("CHEF".equals(crew.get("type"))) {
-                        List<String> recipes = (List<String>) crew.get("chefRecipes");
+                for(CrewDto crew : selectedCrew) {
+                    if("CHEF".equals(crew.type())) {
+                        List<String> recipes = crew.chefRecipes();
                         if(recipes != null && !recipes.isEmpty()) flightMenu.add("Chef's Special: " + recipes.get(0));
                     }
                 }
@@ -274,94 +573,282 @@ class RosterController {
             
             response.put("flightId", flightId);
             response.put("generatedDate", new Date());
-            return ResponseEntity.ok(response);
+            if (!missing.isEmpty()) {
+                response.put("partial", true);
+                response.put("missingSections", missing);
+                metrics.generated("services", "partial");
+                return ResponseEntity.ok(response);
+            }
+
+            // Only complete rosters are memoized, keyed by a fingerprint of everything they were built from and
+            // tied to the pilot/crew snapshots the selection actually read (loaded during this request on a cold cache)
+            String etag = RosterMemo.etagOf(flightId.getBytes(StandardCharsets.UTF_8), inputFingerprint.getBytes(StandardCharsets.UTF_8),
+                    objectMapper.writeValueAsBytes(selectedPilots), objectMapper.writeValueAsBytes(selectedCrew));
+            rosterMemo.put(flightId, response, etag, inputFingerprint, pilotPick.version(), crewPick.version());
+            metrics.generated("services", "generated");
+            return ResponseEntity.ok().eTag(etag).cacheControl(REVALIDATE).body(response);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.atError().addKeyValue("flightId", flightId).setCause(e).log("Roster generation failed");
+            metrics.generated("services", "error");
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.singletonMap("error", e.getMessage()));
         }
     }
 
-    private void assignMissingSeatsSmartly(List<Map> passengers, Map vehicleInfo) {
+    // --- BATCH GENERATION ---
+    // Body: {"flightIds": [...], "from": "2025-01-01", "to": "2025-01-02", "forceNew": false}, ids and date range can be combined.
+    // Rosters are generated with bounded parallelism and written as one JSON line each as soon as they are ready,
+    // so only the rosters in flight are held in memory. A failing flight is reported on its own line.
+    // Declared as StreamingResponseBody so MVC picks the streaming handler; the 400 is written through the same type
+    @PostMapping("/generate/batch")
+    public ResponseEntity<StreamingResponseBody> generateBatch(@RequestBody Map<String, Object> request,
+                                                               @RequestParam(value = "parallelism", required = false) Integer parallelism) {
+        List<String> flightIds;
         try {
-            String configJson = (String) vehicleInfo.get("seatingPlanConfig");
-            if(configJson == null) return;
-            Map<String, Object> config = objectMapper.readValue(configJson, new TypeReference<Map<String, Object>>(){});
-            List<Map<String, Object>> sections = (List<Map<String, Object>>) config.get("sections");
-            Set<String> occupiedSeats = new HashSet<>();
-            Map<Integer, Map> passengerById = new HashMap<>();
-            List<Map> unseatedPassengers = new ArrayList<>();
-
-            for(Map p : passengers) {
-                Number idNum = (Number) p.get("id");
-                if(idNum != null) passengerById.put(idNum.intValue(), p);
-                String s = (String) p.get("seatNumber");
-                Object ageObj = p.get("age");
-                int age = (ageObj instanceof Number) ? ((Number) ageObj).intValue() : 18;
-                if (age <= 2) { p.put("seatNumber", "INFANT (Lap)"); continue; }
-                if(s != null && !s.isEmpty()) occupiedSeats.add(s);
-                else unseatedPassengers.add(p);
-            }
+            flightIds = resolveBatchFlightIds(request);
+        } catch (IllegalArgumentException e) {
+            Map<String, String> error = Collections.singletonMap("error", "Validation Error: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.APPLICATION_JSON).body(out -> objectMapper.writeValue(out, error));
+        }
+        boolean forceNew = Boolean.TRUE.equals(request.get("forceNew"));
+        int workers = Math.max(1, Math.min(parallelism != null ? parallelism : BATCH_PARALLELISM, BATCH_PARALLELISM));
 
-            List<String> availableEconomy = new ArrayList<>();
-            List<String> availableBusiness = new ArrayList<>();
-            int currentRow = 1;
-            for(Map<String, Object> section : sections) {
-                String className = ((String) section.get("className")).toUpperCase();
-                int rows = (Integer) section.get("rows");
-                String letters = (String) section.get("letters");
-                List<String> targetList = "BUSINESS".equals(className) ? availableBusiness : availableEconomy;
-                for(int r=0; r<rows; r++) {
-                    for(char c : letters.toCharArray()) {
-                        String seat = currentRow + String.valueOf(c);
-                        if(!occupiedSeats.contains(seat)) targetList.add(seat);
-                    }
-                    currentRow++;
+        StreamingResponseBody body = out -> {
+            Semaphore permits = new Semaphore(workers);
+            AtomicBoolean clientGone = new AtomicBoolean(false);
+            Object writeLock = new Object();
+            try {
+                for (String flightId : flightIds) {
+                    permits.acquire();
+                    if (clientGone.get()) { permits.release(); break; }
+                    fanOutExecutor.execute(() -> {
+                        try {
+                            byte[] line = objectMapper.writeValueAsBytes(generateBatchEntry(flightId, forceNew));
+                            synchronized (writeLock) {
+                                out.write(line);
+                                out.write('\n');
+                                out.flush();
+                            }
+                        } catch (IOException e) {
+                            clientGone.set(true);
+                        } finally {
+                            permits.release();
+                        }
+                    });
                 }
+                permits.acquire(workers);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
 
-            Set<Integer> processedIds = new HashSet<>();
-            for (Map p : unseatedPassengers) {
-                Number pIdNum = (Number) p.get("id");
-                if (pIdNum == null || processedIds.contains(pIdNum.intValue())) continue;
-                List<Map> group = new ArrayList<>();
-                group.add(p);
-                processedIds.add(pIdNum.intValue());
-                List<Number> affiliateIds = (List<Number>) p.get("affiliatedPassengerIds");
-                if (affiliateIds != null) {
-                    for (Number affId : affiliateIds) {
-                        if (!processedIds.contains(affId.intValue()) && passengerById.containsKey(affId.intValue())) {
-                            Map affiliate = passengerById.get(affId.intValue());
-                            if (unseatedPassengers.contains(affiliate)) {
-                                group.add(affiliate);
-                                processedIds.add(affId.intValue());
-                            }
-                        }
-                    }
+    private Map<String, Object> generateBatchEntry(String flightId, boolean forceNew) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("flightId", flightId);
+        try {
+            ResponseEntity<?> result = generateRoster(flightId, forceNew);
+            if (result.getStatusCode().is2xxSuccessful()) {
+                entry.put("status", "ok");
+                entry.put("roster", result.getBody());
+            } else {
+                entry.put("status", "error");
+                entry.put("httpStatus", result.getStatusCode().value());
+                Object error = result.getBody() instanceof Map ? ((Map) result.getBody()).get("error") : result.getBody();
+                entry.put("error", error);
+            }
+        } catch (Exception e) {
+            entry.put("status", "error");
+            entry.put("httpStatus", HttpStatus.INTERNAL_SERVER_ERROR.value());
+            entry.put("error", e.getMessage());
+        }
+        return entry;
+    }
+
+    private List<String> resolveBatchFlightIds(Map<String, Object> request) {
+        Set<String> ids = new LinkedHashSet<>();
+        Object requestedIds = request.get("flightIds");
+        if (requestedIds instanceof List) {
+            for (Object id : (List) requestedIds) if (id != null) ids.add(id.toString());
+        }
+
+        Object from = request.get("from"), to = request.get("to");
+        if (from != null || to != null) {
+            LocalDate fromDate, toDate;
+            try {
+                fromDate = from != null ? LocalDate.parse(from.toString()) : LocalDate.MIN;
+                toDate = to != null ? LocalDate.parse(to.toString()) : LocalDate.MAX;
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Dates must be in yyyy-MM-dd format.");
+            }
+            Map[] flights = downstream.call("flight", "flights", () -> restTemplate.getForObject(FLIGHT_API_BASE, Map[].class));
+            if (flights != null) {
+                for (Map f : flights) {
+                    Object dateTime = f.get("dateTime");
+                    if (dateTime == null || f.get("flightNumber") == null) continue;
+                    try {
+                        LocalDate day = LocalDateTime.parse(dateTime.toString()).toLocalDate();
+                        if (!day.isBefore(fromDate) && !day.isAfter(toDate)) ids.add((String) f.get("flightNumber"));
+                    } catch (Exception e) { }
                 }
-                String seatType = (String) p.get("seatType");
-                List<String> pool = "BUSINESS".equalsIgnoreCase(seatType) ? availableBusiness : availableEconomy;
-                for (Map member : group) {
-                    if (!pool.isEmpty()) {
-                        member.put("seatNumber", pool.remove(0));
-                        member.put("autoAssigned", true);
-                    } else member.put("seatNumber", "STANDBY");
+            }
+        }
+        if (ids.isEmpty()) throw new IllegalArgumentException("No flights selected. Provide flightIds or a from/to date range.");
+        return new ArrayList<>(ids);
+    }
+
+    // Members picked for a roster and the version of the reference snapshot they were picked from
+    // (-1 when the service picked them because no snapshot was available)
+    record Selection<T>(List<T> members, long version) {}
+
+    List<PilotDto> selectPilots(String vehicleModel, int distance) {
+        return pickPilots(vehicleModel, distance).members();
+    }
+
+    // Picks one senior and one junior pilot from the cached snapshot. If the snapshot is unavailable
+    // the pilot service filters by vehicle/range server-side and we ask only for the two we need.
+    Selection<PilotDto> pickPilots(String vehicleModel, int distance) {
+        List<PilotDto> selectedPilots = new ArrayList<>();
+        long version = -1;
+        try {
+            ReferenceDataCache.Snapshot<PilotDto> pilots = pilotCache.get();
+            PilotDto senior, junior;
+            if (pilots != null) {
+                version = pilots.version;
+                senior = firstInRange(pilots.group(vehicleModel, "SENIOR"), distance);
+                junior = firstInRange(pilots.group(vehicleModel, "JUNIOR"), distance);
+            } else {
+                CompletableFuture<PilotDto> seniorFuture = callAsync(() -> firstEligiblePilot(vehicleModel, distance, "SENIOR"));
+                junior = firstEligiblePilot(vehicleModel, distance, "JUNIOR");
+                senior = seniorFuture.join();
+            }
+            if (senior != null && junior != null) {
+                selectedPilots.add(senior);
+                selectedPilots.add(junior);
+            }
+        } catch (Exception e) { }
+        return new Selection<>(selectedPilots, version);
+    }
+
+    private PilotDto firstInRange(List<PilotDto> pilots, int distance) {
+        for (PilotDto p : pilots) {
+            if (p.allowedRangeKm() >= distance) return p;
+        }
+        return null;
+    }
+
+    private PilotDto firstEligiblePilot(String vehicleModel, int distance, String seniority) {
+        Map<String, Object> params = Map.of("vehicle", vehicleModel, "minRangeKm", distance, "seniority", seniority);
+        PilotDto[] eligible = downstream.call("pilot", "pilots-eligible", () -> restTemplate.getForObject(
+                PILOT_API + "/eligible?vehicle={vehicle}&minRangeKm={minRangeKm}&seniority={seniority}&limit=1", PilotDto[].class, params));
+        return (eligible != null && eligible.length > 0) ? eligible[0] : null;
+    }
+
+    List<CrewDto> selectCrew(String vehicleModel) {
+        return pickCrew(vehicleModel).members();
+    }
+
+    // 1 chief, 1 chef and 4 regulars, from the cached snapshot or (fallback) grouped by the crew service
+    Selection<CrewDto> pickCrew(String vehicleModel) {
+        List<CrewDto> selectedCrew = new ArrayList<>();
+        try {
+            ReferenceDataCache.Snapshot<CrewDto> crew = crewCache.get();
+            if (crew != null) {
+                selectedCrew.addAll(crew.group(vehicleModel, "CHIEF").stream().limit(1).collect(Collectors.toList()));
+                selectedCrew.addAll(crew.group(vehicleModel, "CHEF").stream().limit(1).collect(Collectors.toList()));
+                selectedCrew.addAll(crew.group(vehicleModel, "REGULAR").stream().limit(4).collect(Collectors.toList()));
+                return new Selection<>(selectedCrew, crew.version);
+            }
+            EligibleCrewDto eligible = downstream.call("crew", "crew-eligible", () -> restTemplate.getForObject(
+                    CREW_API + "/eligible?vehicle={vehicle}&chiefs=1&chefs=1&regulars=4", EligibleCrewDto.class, Map.of("vehicle", vehicleModel)));
+            if (eligible != null) {
+                for (List<CrewDto> members : Arrays.asList(eligible.chiefs(), eligible.chefs(), eligible.regulars())) {
+                    if (members != null) selectedCrew.addAll(members);
                 }
             }
-        } catch (Exception e) { e.printStackTrace(); }
+        } catch (Exception e) { }
+        return new Selection<>(selectedCrew, -1);
     }
 
+    List<PassengerDto> assignMissingSeatsSmartly(List<PassengerDto> passengers, Map vehicleInfo) {
+        try {
+            String configJson = (String) vehicleInfo.get("seatingPlanConfig");
+            if(configJson == null) return passengers;
+            SeatAllocator allocator = new SeatAllocator(seatLayoutFor(configJson));
+            return metrics.timeSeatAssignment(() -> allocator.assign(passengers));
+        } catch (Exception e) { log.error("Seat assignment failed", e); }
+        return passengers;
+    }
+
+    SeatAllocator.Layout seatLayoutFor(String configJson) {
+        SeatAllocator.Layout layout = seatLayouts.get(configJson);
+        if (layout != null) return layout;
+        layout = SeatAllocator.compile(SeatingPlan.parse(configJson));
+        seatLayouts.put(configJson, layout);
+        return layout;
+    }
+
+    // Outside docker the service host names do not resolve (or nothing listens there), so only then is the same
+    // call tried once on localhost. Other failures return null; an open breaker is passed on to the caller.
     private Map fetchWithFallback(String url, String serviceName) {
-        try { return restTemplate.getForObject(url, Map.class); } catch (Exception e) {
-            try {
-                String localUrl = url.replace("flight-info-api", "localhost").replace("pilot-api", "localhost").replace("crew-api", "localhost").replace("passenger-api", "localhost");
-                return restTemplate.getForObject(localUrl, Map.class);
-            } catch (Exception ex) { return null; }
+        String service = serviceName.toLowerCase();
+        try { return downstream.call(service, service, () -> restTemplate.getForObject(url, Map.class)); }
+        catch (DownstreamGuard.Unavailable e) { throw e; }
+        catch (Exception e) {
+            String localUrl = url.replace("flight-info-api", "localhost").replace("pilot-api", "localhost").replace("crew-api", "localhost").replace("passenger-api", "localhost");
+            if (!DownstreamGuard.isUnreachable(e) || localUrl.equals(url)) return null;
+            try { return downstream.call(service, service, () -> restTemplate.getForObject(localUrl, Map.class)); }
+            catch (DownstreamGuard.Unavailable ex) { throw ex; }
+            catch (Exception ex) { return null; }
         }
     }
     
+    // Passenger manifest of a flight as NDJSON, piped through from the passenger service's keyset-paged manifest
+    // as it arrives, so a wide-body or charter manifest never sits in memory here. afterId/limit are passed on.
+    @GetMapping("/manifest/{flightId}")
+    public ResponseEntity<StreamingResponseBody> streamManifest(@PathVariable("flightId") String rawFlightId,
+                                                                @RequestParam(value = "afterId", required = false) Long afterId,
+                                                                @RequestParam(value = "limit", required = false) Integer limit) {
+        if (downstream.isOpen("passenger")) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).contentType(MediaType.APPLICATION_JSON)
+                    .body(out -> objectMapper.writeValue(out, Collections.singletonMap("error", "Passenger service unavailable")));
+        }
+        URI uri = UriComponentsBuilder.fromHttpUrl(PASSENGER_API).path("/flight/{flightId}/manifest")
+                .queryParamIfPresent("afterId", Optional.ofNullable(afterId))
+                .queryParamIfPresent("limit", Optional.ofNullable(limit))
+                .buildAndExpand(normalizeId(rawFlightId)).encode().toUri();
+        StreamingResponseBody body = out -> {
+            try {
+                downstream.callOnce("passenger", "passenger-manifest",
+                        () -> restTemplate.execute(uri, HttpMethod.GET, null, response -> copyToClient(response.getBody(), out)));
+            } catch (RuntimeException e) {
+                log.atWarn().addKeyValue("flightId", rawFlightId).log("Manifest stream ended early: {}", e.getMessage());
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    // A client that hangs up ends the copy without counting as a passenger service failure
+    private static Void copyToClient(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            try {
+                out.write(buffer, 0, n);
+                out.flush();
+            } catch (IOException clientGone) {
+                return null;
+            }
+        }
+        return null;
+    }
+
     // --- SAVE METHOD (ID NORMALIZATION INCLUDED) ---
+    // dbType: sql (default), mongo or both. With write-behind on, 202 means the roster is durably queued (see RosterStore).
     @PostMapping("/save")
     public ResponseEntity<?> saveRoster(@RequestBody Map<String, Object> rosterData, @RequestParam(name="dbType", defaultValue="sql") String dbType) {
+        List<String> stores = RosterStore.storesOf(dbType);
+        String store = stores.size() > 1 ? "both" : stores.get(0);
         try {
             validateRosterRules(rosterData);
             
@@ -383,43 +870,63 @@ class RosterController {
             Date now = new Date();
             rosterData.put("generatedDate", now);
 
-            System.out.println("Saving Roster: " + flightId + " (Raw was: " + rawId + ")");
+            if (traceRequest()) log.atDebug().addKeyValue("flightId", flightId).addKeyValue("rawFlightId", rawId).addKeyValue("store", store).log("Saving roster");
+            rosterMemo.invalidate(flightId);
 
-            if ("mongo".equalsIgnoreCase(dbType)) {
-                List<RosterDocument> existingDocs = mongoRepo.findByFlightIdOrderByGeneratedDateDesc(flightId);
-                RosterDocument doc = !existingDocs.isEmpty() ? existingDocs.get(0) : new RosterDocument();
-                if(doc.getId() == null) doc.setFlightId(flightId);
-                doc.setGeneratedDate(now);
-                doc.setRosterData(rosterData);
-                mongoRepo.save(doc);
-            } else {
-                List<RosterSqlEntity> existingEntities = sqlRepo.findByFlightIdOrderByGeneratedDateDesc(flightId);
-                RosterSqlEntity entity = !existingEntities.isEmpty() ? existingEntities.get(0) : new RosterSqlEntity();
-                if(entity.getId() == null) entity.setFlightId(flightId);
-                entity.setGeneratedDate(now);
-                entity.setRosterData(objectMapper.writeValueAsString(rosterData));
-                sqlRepo.save(entity);
+            // the roster and its history version are stored together; a queued roster gets its version when written
+            int version = rosterStore.save(flightId, rosterData, info, now, stores, store);
+            if (rosterStore.isWriteBehind()) {
+                metrics.saved(store, "queued");
+                return ResponseEntity.accepted().body("Queued for " + dbType);
             }
-            return ResponseEntity.ok("Saved to " + dbType);
+            metrics.saved(store, "success");
+            return ResponseEntity.ok().header("X-Roster-Version", String.valueOf(version)).body("Saved to " + dbType);
             
         } catch (IllegalArgumentException e) {
+            metrics.saved(store, "invalid");
             // HATA DÜZELTME: Testin beklediği "Validation Error" kelimesini ekledik
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(Collections.singletonMap("error", "Validation Error: " + e.getMessage()));
             
         } catch (Exception e) { 
-            e.printStackTrace();
+            log.atError().addKeyValue("store", store).setCause(e).log("Saving roster failed");
+            metrics.saved(store, "error");
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.singletonMap("error", e.getMessage())); 
         }
     }
     
-    @GetMapping("/flights")
+    // Every saved version of a flight's roster, oldest first (number, time, stored as snapshot or delta, size)
+    @GetMapping("/history/{flightId}")
+    public List<Map<String, Object>> getRosterHistory(@PathVariable("flightId") String flightId) {
+        return rosterHistory.versions(normalizeId(flightId));
+    }
+
+    @GetMapping("/history/{flightId}/{version}")
+    public ResponseEntity<?> getRosterVersion(@PathVariable("flightId") String flightId, @PathVariable("version") int version) {
+        try {
+            JsonNode roster = rosterHistory.version(normalizeId(flightId), version);
+            if (roster == null) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Collections.singletonMap("error", "No version " + version + " of " + flightId));
+            return ResponseEntity.ok(roster);
+        } catch (JsonProcessingException e) {
+            log.atError().addKeyValue("flightId", flightId).addKeyValue("version", version).setCause(e).log("Rebuilding roster version failed");
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.singletonMap("error", e.getMessage()));
+        }
+    }
+
     public List<Map<String, Object>> getFlights() {
+        return getFlights(null, null).getBody();
+    }
+
+    // Flights from the flight service followed by saved-only flights from the summary table.
+    // With page/size only that slice is returned and X-Total-Count carries the full count.
+    @GetMapping("/flights")
+    public ResponseEntity<List<Map<String, Object>>> getFlights(@RequestParam(value = "page", required = false) Integer page,
+                                                                @RequestParam(value = "size", required = false) Integer size) {
         List<Map<String, Object>> combinedFlights = new ArrayList<>();
         Set<String> existingFlightNumbers = new HashSet<>();
 
         try {
-            Map[] standardFlights = restTemplate.getForObject(FLIGHT_API_BASE, Map[].class);
+            Map[] standardFlights = downstream.call("flight", "flights", () -> restTemplate.getForObject(FLIGHT_API_BASE, Map[].class));
             if (standardFlights != null) {
                 for (Map f : standardFlights) {
                     combinedFlights.add(f);
@@ -427,26 +934,19 @@ class RosterController {
                     if(fNum != null) existingFlightNumbers.add(normalizeId(fNum));
                 }
             }
-        } catch (Exception e) { System.err.println("Flight API Error: " + e.getMessage()); }
+        } catch (Exception e) { log.warn("Flight API error: {}", e.getMessage()); }
 
-        List<RosterSqlEntity> savedRosters = sqlRepo.findAll();
-        for (RosterSqlEntity roster : savedRosters) {
-            try {
-                Map<String, Object> rosterData = objectMapper.readValue(roster.getRosterData(), new TypeReference<Map<String, Object>>(){});
-                Map<String, Object> flightInfo = (Map<String, Object>) rosterData.get("flightInfo");
-
-                if (flightInfo != null) {
-                    String fNumRaw = (String) flightInfo.get("flightNumber");
-                    String fNumNorm = normalizeId(fNumRaw);
-                    
-                    if (fNumNorm != null && !existingFlightNumbers.contains(fNumNorm)) {
-                        combinedFlights.add(flightInfo);
-                        existingFlightNumbers.add(fNumNorm);
-                    }
-                }
-            } catch (Exception e) { }
+        for (RosterSummary summary : summaryRepo.findAll(Sort.by("flightNumber"))) {
+            if (existingFlightNumbers.add(summary.getFlightNumber())) combinedFlights.add(summary.toFlightView());
         }
-        return combinedFlights;
+
+        if (page == null && size == null) return ResponseEntity.ok(combinedFlights);
+        int pageSize = Math.max(1, Math.min(size != null ? size : 50, 500));
+        int from = (int) Math.min((long) Math.max(0, page != null ? page : 0) * pageSize, combinedFlights.size());
+        int to = Math.min(from + pageSize, combinedFlights.size());
+        return ResponseEntity.ok()
+                .header("X-Total-Count", String.valueOf(combinedFlights.size()))
+                .body(new ArrayList<>(combinedFlights.subList(from, to)));
     }
     
     private void validateRosterRules(Map<String, Object> rosterData) {
@@ -455,47 +955,262 @@ class RosterController {
     }
 
     @GetMapping("/candidates/pilots/{vehicleType}")
-    public List<Map> getCandidatePilots(@PathVariable("vehicleType") String vehicleType, @RequestParam(value = "date", required = false) String dateStr, @RequestParam(value = "currentFlightId", required = false) String currentFlightId) {
+    public List<PilotDto> getCandidatePilots(@PathVariable("vehicleType") String vehicleType, @RequestParam(value = "date", required = false) String dateStr, @RequestParam(value = "currentFlightId", required = false) String currentFlightId) {
+        ReferenceDataCache.Snapshot<PilotDto> cached = pilotCache.get();
+        if (cached != null) return cached.all;
         try {
-             Map[] allPilots = restTemplate.getForObject(PILOT_API, Map[].class);
+             PilotDto[] allPilots = downstream.call("pilot", "pilots", () -> restTemplate.getForObject(PILOT_API, PilotDto[].class));
              return Arrays.asList(allPilots); 
         } catch(Exception e) { return new ArrayList<>(); }
     }
     @GetMapping("/candidates/crew")
-    public List<Map> getCandidateCrew(@RequestParam(value = "date", required = false) String dateStr, @RequestParam(value = "currentFlightId", required = false) String currentFlightId) {
+    public List<CrewDto> getCandidateCrew(@RequestParam(value = "date", required = false) String dateStr, @RequestParam(value = "currentFlightId", required = false) String currentFlightId) {
+        ReferenceDataCache.Snapshot<CrewDto> cached = crewCache.get();
+        if (cached != null) return cached.all;
         try {
-             Map[] allCrew = restTemplate.getForObject(CREW_API, Map[].class);
+             CrewDto[] allCrew = downstream.call("crew", "cabin-crew", () -> restTemplate.getForObject(CREW_API, CrewDto[].class));
              return Arrays.asList(allCrew);
         } catch(Exception e) { return new ArrayList<>(); }
     }
+
+    @GetMapping("/admin/reference-cache")
+    public Map<String, Object> getReferenceCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pilots", pilotCache.stats());
+        stats.put("cabinCrew", crewCache.stats());
+        stats.put("generatedRosters", rosterMemo.stats());
+        return stats;
+    }
+
+    @DeleteMapping("/admin/reference-cache")
+    public ResponseEntity<?> invalidateReferenceCache() {
+        pilotCache.invalidate();
+        crewCache.invalidate();
+        rosterMemo.clear();
+        return ResponseEntity.ok(Collections.singletonMap("status", "Reference cache invalidated"));
+    }
 }
 
 // ENTITIES
-@Entity @Table(name = "rosters")
+// normalizedFlightId is kept in step with flightId by the setter; "" marks rows without a flight id
+@Entity @Table(name = "rosters", indexes = @Index(name = "idx_rosters_normalized_flight", columnList = "normalizedFlightId, generatedDate"))
 class RosterSqlEntity {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY) private Long id;
     private String flightId;
+    private String normalizedFlightId;
     @Temporal(TemporalType.TIMESTAMP) private Date generatedDate;
-    @Lob @Column(columnDefinition = "TEXT") private String rosterData;
+    @Lob @Column(columnDefinition = "TEXT") private String rosterData;   // JSON text, rows saved before RosterCodec
+    @Column(columnDefinition = "BLOB") private byte[] rosterBlob;
     public Long getId() { return id; } public void setId(Long id) { this.id = id; }
-    public String getFlightId() { return flightId; } public void setFlightId(String f) { this.flightId = f; }
+    public String getFlightId() { return flightId; }
+    public void setFlightId(String f) { this.flightId = f; this.normalizedFlightId = f != null ? MainSystemApi.normalizeFlightId(f) : ""; }
+    public String getNormalizedFlightId() { return normalizedFlightId; }
     public Date getGeneratedDate() { return generatedDate; } public void setGeneratedDate(Date d) { this.generatedDate = d; }
     public String getRosterData() { return rosterData; } public void setRosterData(String r) { this.rosterData = r; }
+    public byte[] getRosterBlob() { return rosterBlob; } public void setRosterBlob(byte[] b) { this.rosterBlob = b; }
 }
 interface RosterSqlRepository extends JpaRepository<RosterSqlEntity, Long> {
-    List<RosterSqlEntity> findByFlightIdOrderByGeneratedDateDesc(String flightId);
+    List<RosterSqlEntity> findByNormalizedFlightIdOrderByGeneratedDateDesc(String normalizedFlightId);
+    List<RosterSqlEntity> findByNormalizedFlightIdIsNull(Pageable page);
+    List<RosterSqlEntity> findByRosterBlobIsNullAndIdGreaterThanOrderByIdAsc(Long id, Pageable page);
+
+    // Overwrites the newest roster of a flight, or inserts the first one, in one statement: the subquery picks the
+    // row (NULL = new rowid) and ON CONFLICT turns the insert into an update of it. Older duplicates are left alone.
+    @Modifying @Transactional
+    @Query(value = "INSERT INTO rosters (id, flight_id, normalized_flight_id, generated_date, roster_data, roster_blob) VALUES (" +
+            "(SELECT id FROM rosters WHERE normalized_flight_id = :normalizedFlightId ORDER BY generated_date DESC LIMIT 1), " +
+            ":flightId, :normalizedFlightId, :generatedDate, NULL, :rosterBlob) " +
+            "ON CONFLICT(id) DO UPDATE SET flight_id = excluded.flight_id, generated_date = excluded.generated_date, " +
+            "roster_data = NULL, roster_blob = excluded.roster_blob",
+            nativeQuery = true)
+    int upsertLatest(@Param("flightId") String flightId, @Param("normalizedFlightId") String normalizedFlightId,
+                     @Param("generatedDate") Date generatedDate, @Param("rosterBlob") byte[] rosterBlob);
+
+    // Migration of a roster saved as JSON text (backfillRosterBlobs); a concurrent save that already wrote a blob wins
+    @Modifying @Transactional
+    @Query(value = "UPDATE rosters SET roster_blob = :rosterBlob, roster_data = NULL WHERE id = :id AND roster_blob IS NULL", nativeQuery = true)
+    int migrateToBlob(@Param("id") Long id, @Param("rosterBlob") byte[] rosterBlob);
+
+    // Write-behind batch: one transaction, so one commit for the whole batch
+    @Transactional
+    default void upsertAll(List<RosterSqlEntity> rosters) {
+        for (RosterSqlEntity r : rosters) upsertLatest(r.getFlightId(), r.getNormalizedFlightId(), r.getGeneratedDate(), r.getRosterBlob());
+    }
 }
 @Document(collection = "rosters")
+@CompoundIndex(name = "idx_rosters_normalized_flight", def = "{'normalizedFlightId': 1, 'generatedDate': -1}")
 class RosterDocument {
     @org.springframework.data.annotation.Id private String id;
     private String flightId;
+    private String normalizedFlightId;
     private Date generatedDate;
-    private Map<String, Object> rosterData;
+    private Map<String, Object> rosterData;   // documents saved before RosterCodec
+    private byte[] rosterBlob;
     public String getId() { return id; } public void setId(String id) { this.id = id; }
-    public String getFlightId() { return flightId; } public void setFlightId(String f) { this.flightId = f; }
+    public String getFlightId() { return flightId; }
+    public void setFlightId(String f) { this.flightId = f; this.normalizedFlightId = f != null ? MainSystemApi.normalizeFlightId(f) : ""; }
+    public String getNormalizedFlightId() { return normalizedFlightId; }
     public Date getGeneratedDate() { return generatedDate; } public void setGeneratedDate(Date d) { this.generatedDate = d; }
     public Map<String, Object> getRosterData() { return rosterData; } public void setRosterData(Map<String, Object> r) { this.rosterData = r; }
+    public byte[] getRosterBlob() { return rosterBlob; } public void setRosterBlob(byte[] b) { this.rosterBlob = b; }
+}
+// One row per saved flight with just what the flight list shows; written by saveRoster
+@Entity @Table(name = "roster_summaries")
+class RosterSummary {
+    @Id private String flightNumber;
+    private String sourceCode;
+    private String destinationCode;
+    private String dateTime;
+    private Integer distanceKm;
+    private String vehicleType;
+    @Temporal(TemporalType.TIMESTAMP) private Date savedAt;
+    private String store;
+
+    static RosterSummary from(String flightNumber, Map flightInfo, Date savedAt, String store) {
+        RosterSummary s = new RosterSummary();
+        s.flightNumber = flightNumber;
+        s.savedAt = savedAt;
+        s.store = store;
+        if (flightInfo != null) {
+            s.sourceCode = codeOf(flightInfo.get("source"), "code");
+            s.destinationCode = codeOf(flightInfo.get("destination"), "code");
+            s.vehicleType = codeOf(flightInfo.get("vehicleType"), "modelName");
+            if (flightInfo.get("dateTime") instanceof String d) s.dateTime = d;
+            if (flightInfo.get("distanceKm") instanceof Number n) s.distanceKm = n.intValue();
+        }
+        return s;
+    }
+
+    // Flight payloads carry nested objects ({"code": "IST", ...}); locally added flights may carry plain strings
+    private static String codeOf(Object value, String key) {
+        if (value instanceof Map m) return m.get(key) != null ? String.valueOf(m.get(key)) : null;
+        return value instanceof String str ? str : null;
+    }
+
+    // Same keys the dashboard reads from flight-service flights
+    Map<String, Object> toFlightView() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("flightNumber", flightNumber);
+        m.put("source", sourceCode);
+        m.put("destination", destinationCode);
+        m.put("dateTime", dateTime);
+        m.put("distanceKm", distanceKm);
+        m.put("vehicleType", vehicleType);
+        m.put("savedAt", savedAt);
+        m.put("store", store);
+        return m;
+    }
+
+    public String getFlightNumber() { return flightNumber; }
+    public String getSourceCode() { return sourceCode; } public String getDestinationCode() { return destinationCode; }
+    public String getDateTime() { return dateTime; } public Integer getDistanceKm() { return distanceKm; } public String getVehicleType() { return vehicleType; }
+    public Date getSavedAt() { return savedAt; }
+    public String getStore() { return store; }
+}
+interface RosterSummaryRepository extends JpaRepository<RosterSummary, String> {
+    // save() of an assigned id selects the row first; this is the same write in one statement
+    @Modifying @Transactional
+    @Query(value = "INSERT INTO roster_summaries (flight_number, source_code, destination_code, date_time, distance_km, vehicle_type, saved_at, store) " +
+            "VALUES (:flightNumber, :sourceCode, :destinationCode, :dateTime, :distanceKm, :vehicleType, :savedAt, :store) " +
+            "ON CONFLICT(flight_number) DO UPDATE SET source_code = excluded.source_code, destination_code = excluded.destination_code, " +
+            "date_time = excluded.date_time, distance_km = excluded.distance_km, vehicle_type = excluded.vehicle_type, saved_at = excluded.saved_at, store = excluded.store",
+            nativeQuery = true)
+    int upsert(@Param("flightNumber") String flightNumber, @Param("sourceCode") String sourceCode, @Param("destinationCode") String destinationCode,
+               @Param("dateTime") String dateTime, @Param("distanceKm") Integer distanceKm, @Param("vehicleType") String vehicleType,
+               @Param("savedAt") Date savedAt, @Param("store") String store);
+
+    default void upsert(RosterSummary s) {
+        upsert(s.getFlightNumber(), s.getSourceCode(), s.getDestinationCode(), s.getDateTime(), s.getDistanceKm(), s.getVehicleType(), s.getSavedAt(), s.getStore());
+    }
+}
+interface RosterMongoRepository extends MongoRepository<RosterDocument, String>, RosterMongoUpsert {
+    List<RosterDocument> findByNormalizedFlightIdOrderByGeneratedDateDesc(String normalizedFlightId);
+    List<RosterDocument> findByNormalizedFlightIdIsNull(Pageable page);
+    List<RosterDocument> findByRosterBlobIsNullAndIdGreaterThanOrderByIdAsc(String id, Pageable page);
+}
+// Repository fragment: upserts keyed by normalizedFlightId, all of them in one unordered bulk write
+interface RosterMongoUpsert {
+    void upsertAll(List<RosterDocument> rosters);
+
+    void migrateToBlob(String id, byte[] rosterBlob);
+}
+class RosterMongoUpsertImpl implements RosterMongoUpsert {
+    private final MongoTemplate mongoTemplate;
+    RosterMongoUpsertImpl(MongoTemplate mongoTemplate) { this.mongoTemplate = mongoTemplate; }
+
+    @Override
+    public void upsertAll(List<RosterDocument> rosters) {
+        if (rosters.isEmpty()) return;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RosterDocument.class);
+        for (RosterDocument doc : rosters) {
+            bulk.upsert(org.springframework.data.mongodb.core.query.Query.query(Criteria.where("normalizedFlightId").is(doc.getNormalizedFlightId())),
+                    new Update().set("flightId", doc.getFlightId()).set("generatedDate", doc.getGeneratedDate())
+                            .set("rosterBlob", doc.getRosterBlob()).unset("rosterData"));
+        }
+        bulk.execute();
+    }
+
+    @Override
+    public void migrateToBlob(String id, byte[] rosterBlob) {
+        mongoTemplate.updateFirst(org.springframework.data.mongodb.core.query.Query.query(Criteria.where("_id").is(id).and("rosterBlob").exists(false)),
+                new Update().set("rosterBlob", rosterBlob).unset("rosterData"), RosterDocument.class);
+    }
+}
+// Saves accepted in write-behind mode and not yet written to their store (RosterStore); one row per store
+@Entity @Table(name = "roster_outbox")
+class RosterOutboxEntry {
+    @Id @GeneratedValue(strategy = GenerationType.IDENTITY) private Long id;
+    private String flightId;
+    private String store;
+    @Temporal(TemporalType.TIMESTAMP) private Date savedAt;
+    @Lob @Column(columnDefinition = "TEXT") private String rosterData;   // JSON text, entries queued before RosterCodec
+    @Column(columnDefinition = "BLOB") private byte[] payload;
+    private Boolean recordsVersion;   // set on one entry per save; its flush adds the roster to RosterHistory
+    public RosterOutboxEntry() {}
+    RosterOutboxEntry(String flightId, String store, Date savedAt, byte[] payload, boolean recordsVersion) {
+        this.flightId = flightId; this.store = store; this.savedAt = savedAt; this.payload = payload; this.recordsVersion = recordsVersion;
+    }
+    public Long getId() { return id; } public String getFlightId() { return flightId; } public String getStore() { return store; } public Date getSavedAt() { return savedAt; }
+    public boolean recordsVersion() { return Boolean.TRUE.equals(recordsVersion); }
+    public byte[] getPayload() { return payload != null ? payload : RosterCodec.fromJson(rosterData); }
+}
+interface RosterOutboxRepository extends JpaRepository<RosterOutboxEntry, Long> {
+    List<RosterOutboxEntry> findByStoreOrderByIdAsc(String store, Pageable page);
 }
-interface RosterMongoRepository extends MongoRepository<RosterDocument, String> {
-    List<RosterDocument> findByFlightIdOrderByGeneratedDateDesc(String flightId);
+// One row per saved version of a flight's roster (RosterHistory); data is the full roster when snapshot, else a delta.
+// (normalizedFlightId, version) is unique through an index created at startup: the SQLite dialect drops unique constraints.
+@Entity @Table(name = "roster_versions")
+class RosterVersion {
+    @Id @GeneratedValue(strategy = GenerationType.IDENTITY) private Long id;
+    private String flightId;
+    private String normalizedFlightId;
+    private int version;
+    @Temporal(TemporalType.TIMESTAMP) private Date savedAt;
+    private boolean snapshot;
+    private int bytes;
+    @Lob @Column(columnDefinition = "TEXT") private String data;
+    public RosterVersion() {}
+    RosterVersion(String flightId, String normalizedFlightId, int version, Date savedAt, boolean snapshot, String data) {
+        this.flightId = flightId; this.normalizedFlightId = normalizedFlightId; this.version = version; this.savedAt = savedAt;
+        this.snapshot = snapshot; this.data = data; this.bytes = data.getBytes(StandardCharsets.UTF_8).length;
+    }
+    public int getVersion() { return version; } public Date getSavedAt() { return savedAt; } public boolean isSnapshot() { return snapshot; }
+    public int getBytes() { return bytes; } public String getData() { return data; }
+}
+// Version list without the roster data
+interface RosterVersionInfo {
+    int getVersion();
+    Date getSavedAt();
+    boolean isSnapshot();
+    int getBytes();
+}
+interface RosterVersionRepository extends JpaRepository<RosterVersion, Long> {
+    RosterVersion findTopByNormalizedFlightIdOrderByVersionDesc(String normalizedFlightId);
+    RosterVersion findTopByNormalizedFlightIdAndSnapshotTrueAndVersionLessThanEqualOrderByVersionDesc(String normalizedFlightId, int version);
+    List<RosterVersion> findByNormalizedFlightIdAndVersionBetweenOrderByVersionAsc(String normalizedFlightId, int from, int to);
+    List<RosterVersionInfo> findByNormalizedFlightIdOrderByVersionAsc(String normalizedFlightId);
+
+    @Modifying @Transactional
+    @Query(value = "CREATE UNIQUE INDEX IF NOT EXISTS uk_roster_versions_flight_version ON roster_versions (normalized_flight_id, version)", nativeQuery = true)
+    void createVersionIndex();
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+package com.cmpe331.mainsystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Snapshot cache for slowly changing reference data (pilots, cabin crew) held by the main system.
+// The whole list is loaded at once and indexed by vehicle model (lower case: the match ignores case, as the
+// pilot and crew services' /eligible lookups do) and by a group key (seniority for pilots, type for crew).
+// Entries expire after the TTL; once a snapshot passes the refresh-ahead point it is still served while a
+// background reload runs.
+class ReferenceDataCache<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(ReferenceDataCache.class);
+
+    static final class Snapshot<T> {
+        final List<T> all;
+        final Map<String, Map<String, List<T>>> byVehicle;
+        final long version;
+        final long loadedAtNanos;
+        final int contentHash;
+
+        Snapshot(List<T> all, Map<String, Map<String, List<T>>> byVehicle, long version, long loadedAtNanos, int contentHash) {
+            this.all = all; this.byVehicle = byVehicle; this.version = version; this.loadedAtNanos = loadedAtNanos; this.contentHash = contentHash;
+        }
+
+        // Members that can work on this vehicle, in the order the service returned them (by id)
+        List<T> group(String vehicleModel, String groupKey) {
+            if (vehicleModel == null || groupKey == null) return Collections.emptyList();
+            Map<String, List<T>> groups = byVehicle.get(vehicleModel.toLowerCase(Locale.ROOT));
+            if (groups == null) return Collections.emptyList();
+            return groups.getOrDefault(groupKey.toUpperCase(), Collections.emptyList());
+        }
+    }
+
+    private final String name;
+    private final Supplier<T[]> loader;
+    private final Function<T, Collection<String>> vehiclesOf;
+    private final Function<T, String> groupOf;
+    private final Executor refreshExecutor;
+    private final long ttlNanos;
+    private final long refreshAheadNanos;
+    private final int maxEntries;
+
+    private volatile Snapshot<T> snapshot;
+    private final Object loadLock = new Object();
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final AtomicLong versionCounter = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong oversizeRejections = new AtomicLong();
+
+    ReferenceDataCache(String name, Supplier<T[]> loader, Function<T, Collection<String>> vehiclesOf, Function<T, String> groupOf,
+                       Executor refreshExecutor, long ttlSeconds, int maxEntries) {
+        this.name = name;
+        this.loader = loader;
+        this.vehiclesOf = vehiclesOf;
+        this.groupOf = groupOf;
+        this.refreshExecutor = refreshExecutor;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.refreshAheadNanos = ttlNanos * 4 / 5;
+        this.maxEntries = maxEntries;
+    }
+
+    // Returns the current snapshot, or null when the data is unavailable or too large to hold.
+    // Callers then fall back to the server-side eligibility queries.
+    Snapshot<T> get() {
+        Snapshot<T> current = snapshot;
+        long now = System.nanoTime();
+        if (current != null && now - current.loadedAtNanos < ttlNanos) {
+            hits.incrementAndGet();
+            if (now - current.loadedAtNanos >= refreshAheadNanos) refreshInBackground();
+            return current;
+        }
+        misses.incrementAndGet();
+        synchronized (loadLock) {
+            // another request may have loaded it while we were waiting
+            Snapshot<T> latest = snapshot;
+            if (latest != null && latest != current && System.nanoTime() - latest.loadedAtNanos < ttlNanos) return latest;
+            Snapshot<T> loaded = load();
+            // serve the expired snapshot rather than nothing while the service is down
+            return loaded != null ? loaded : snapshot;
+        }
+    }
+
+    void invalidate() {
+        synchronized (loadLock) { snapshot = null; }
+    }
+
+    // Bumped only when the loaded content actually changed
+    long version() {
+        Snapshot<T> current = snapshot;
+        return current != null ? current.version : -1;
+    }
+
+    Map<String, Object> stats() {
+        Snapshot<T> current = snapshot;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("name", name);
+        m.put("hits", hits.get());
+        m.put("misses", misses.get());
+        m.put("loads", loads.get());
+        m.put("loadFailures", loadFailures.get());
+        m.put("oversizeRejections", oversizeRejections.get());
+        m.put("entries", current != null ? current.all.size() : 0);
+        m.put("maxEntries", maxEntries);
+        m.put("version", current != null ? current.version : -1);
+        m.put("ageSeconds", current != null ? TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - current.loadedAtNanos) : -1);
+        m.put("ttlSeconds", TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        return m;
+    }
+
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) return;
+        try {
+            refreshExecutor.execute(() -> {
+                try { synchronized (loadLock) { load(); } } finally { refreshing.set(false); }
+            });
+        } catch (RuntimeException e) {
+            refreshing.set(false);
+        }
+    }
+
+    // Must be called holding loadLock
+    private Snapshot<T> load() {
+        T[] loaded;
+        try {
+            loaded = loader.get();
+        } catch (Exception e) {
+            loadFailures.incrementAndGet();
+            log.atWarn().addKeyValue("cache", name).log("Reference cache load failed: {}", e.getMessage());
+            return null;
+        }
+        if (loaded == null) {
+            loadFailures.incrementAndGet();
+            return null;
+        }
+        if (loaded.length > maxEntries) {
+            oversizeRejections.incrementAndGet();
+            snapshot = null;
+            return null;
+        }
+
+        List<T> all = List.of(loaded);
+        Map<String, Map<String, List<T>>> byVehicle = new HashMap<>();
+        for (T entry : all) {
+            String group = groupOf.apply(entry);
+            if (group == null) continue;
+            Collection<String> vehicles = vehiclesOf.apply(entry);
+            if (vehicles == null) continue;
+            for (String vehicle : vehicles) {
+                if (vehicle == null) continue;
+                List<T> members = byVehicle.computeIfAbsent(vehicle.toLowerCase(Locale.ROOT), k -> new HashMap<>())
+                                           .computeIfAbsent(group.toUpperCase(), k -> new ArrayList<>());
+                // a member listing the vehicle in two spellings is still one entry
+                if (members.isEmpty() || members.get(members.size() - 1) != entry) members.add(entry);
+            }
+        }
+
+        int contentHash = all.hashCode();
+        Snapshot<T> previous = snapshot;
+        long version = (previous != null && previous.contentHash == contentHash) ? previous.version : versionCounter.incrementAndGet();
+        Snapshot<T> fresh = new Snapshot<>(all, byVehicle, version, System.nanoTime(), contentHash);
+        snapshot = fresh;
+        loads.incrementAndGet();
+        return fresh;
+    }
+}
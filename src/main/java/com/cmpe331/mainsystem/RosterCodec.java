@@ -0,0 +1,97 @@
+package com.cmpe331.mainsystem;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+// Encoding of stored rosters (rosters.roster_blob, the Mongo rosterBlob field, roster_outbox.payload). The first
+// byte names the format, so blobs stay readable after ROSTER_CODEC is changed:
+//   1 json       UTF-8 JSON text
+//   2 smile      Jackson's binary JSON: no quoting or escaping, repeated names and short values sent as back references
+//   3 smile-lz4  (default) Smile compressed with LZ4 as one block, preceded by the uncompressed length
+// Rosters saved before the codec existed are JSON text (rosters.roster_data, Mongo rosterData). The backfillRosterBlobs
+// runner rewrites them into blobs of the configured format at startup; until it reaches a row, readers decode the text.
+class RosterCodec {
+
+    static final byte JSON = 1, SMILE = 2, SMILE_LZ4 = 3;
+
+    private static final LZ4Compressor LZ4_COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor LZ4_DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final ObjectMapper json;
+    private final ObjectMapper smile;
+    private final byte format;
+
+    RosterCodec(ObjectMapper objectMapper, String name) {
+        this.json = objectMapper;
+        // same modules and date handling as the application's mapper
+        this.smile = objectMapper.copyWith(SmileFactory.builder().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES).build());
+        this.format = formatOf(name);
+    }
+
+    // Blank or missing means the default; anything else must name a format, so a typo fails at startup
+    static byte formatOf(String name) {
+        return switch (name == null ? "" : name.trim().toLowerCase()) {
+            case "json" -> JSON;
+            case "smile" -> SMILE;
+            case "smile-lz4", "" -> SMILE_LZ4;
+            default -> throw new IllegalArgumentException("Unknown roster codec '" + name + "', expected json, smile or smile-lz4");
+        };
+    }
+
+    byte format() { return format; }
+
+    byte[] encode(Object roster) throws JsonProcessingException {
+        return switch (format) {
+            case JSON -> withFormat(JSON, json.writeValueAsBytes(roster));
+            case SMILE -> withFormat(SMILE, smile.writeValueAsBytes(roster));
+            default -> {
+                byte[] raw = smile.writeValueAsBytes(roster);
+                byte[] out = new byte[5 + LZ4_COMPRESSOR.maxCompressedLength(raw.length)];
+                out[0] = SMILE_LZ4;
+                ByteBuffer.wrap(out, 1, 4).putInt(raw.length);
+                int length = LZ4_COMPRESSOR.compress(raw, 0, raw.length, out, 5);
+                yield Arrays.copyOf(out, 5 + length);
+            }
+        };
+    }
+
+    Map<String, Object> decode(byte[] blob) throws IOException {
+        return switch (blob[0]) {
+            case JSON -> json.readValue(blob, 1, blob.length - 1, RosterDtos.JSON_OBJECT);
+            case SMILE -> smile.readValue(blob, 1, blob.length - 1, RosterDtos.JSON_OBJECT);
+            case SMILE_LZ4 -> {
+                byte[] raw = LZ4_DECOMPRESSOR.decompress(blob, 5, ByteBuffer.wrap(blob, 1, 4).getInt());
+                yield smile.readValue(raw, RosterDtos.JSON_OBJECT);
+            }
+            default -> throw new IOException("Unknown roster format " + blob[0]);
+        };
+    }
+
+    // Reads either column of a stored roster: the blob, or JSON text written before the codec existed
+    Map<String, Object> decode(byte[] blob, String legacyJson) throws IOException {
+        return blob != null ? decode(blob) : json.readValue(legacyJson, RosterDtos.JSON_OBJECT);
+    }
+
+    // A JSON text roster as a blob without parsing it (queued saves from before the codec existed)
+    static byte[] fromJson(String text) {
+        return withFormat(JSON, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] withFormat(byte format, byte[] body) {
+        byte[] out = new byte[body.length + 1];
+        out[0] = format;
+        System.arraycopy(body, 0, out, 1, body.length);
+        return out;
+    }
+}
@@ -0,0 +1,41 @@
+package com.cmpe331.mainsystem;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.util.List;
+import java.util.Map;
+
+// Typed views of the pilot, cabin crew and passenger payloads. RestTemplate's Jackson converter binds them
+// straight from the response stream, without a LinkedHashMap per element, and they serialize back under the
+// same field names the services use. Unknown fields are ignored (Boot's mapper default).
+final class RosterDtos {
+    private RosterDtos() {}
+
+    // Saved rosters are stored and returned as plain JSON objects
+    static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<>() {};
+}
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+record PilotDto(Long id, String name, Integer age, String gender, String nationality,
+                int allowedRangeKm, String allowedVehicleType, String seniorityLevel, List<String> languages) {}
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+record CrewDto(Long id, String name, Integer age, String gender, String nationality, String type, String seniority,
+               List<String> languages, List<String> allowedVehicles, List<String> chefRecipes) {}
+
+// Answer of /api/cabin-crew/eligible: members grouped by type
+record EligibleCrewDto(@JsonProperty("CHIEF") List<CrewDto> chiefs,
+                       @JsonProperty("CHEF") List<CrewDto> chefs,
+                       @JsonProperty("REGULAR") List<CrewDto> regulars) {}
+
+// autoAssigned is only set by the main system, on seats it filled in
+@JsonInclude(JsonInclude.Include.NON_NULL)
+record PassengerDto(Long id, String name, Integer age, String gender, String nationality, String flightId,
+                    String seatType, String seatNumber, Long parentId, List<Long> affiliatedPassengerIds, Boolean autoAssigned) {
+
+    PassengerDto withSeat(String seat, Boolean auto) {
+        return new PassengerDto(id, name, age, gender, nationality, flightId, seatType, seat, parentId, affiliatedPassengerIds, auto);
+    }
+}
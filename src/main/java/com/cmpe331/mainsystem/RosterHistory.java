@@ -0,0 +1,271 @@
+package com.cmpe331.mainsystem;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.dao.DataAccessException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Append-only version log of every saved roster (roster_versions), kept next to the latest copy in RosterStore.
+// Version 1 of a flight and every ROSTER_HISTORY_SNAPSHOT_EVERY-th version after the last snapshot are stored in
+// full; the others as a structural delta against the previous version, so rebuilding any version reads one
+// snapshot plus at most ROSTER_HISTORY_SNAPSHOT_EVERY - 1 deltas. A delta that would not be smaller than the
+// roster itself is stored as a snapshot instead.
+// A version is written in the same transaction as the roster it records (RosterStore passes its writes along), so a
+// version exists exactly when its roster was stored.
+// The newest version of recently saved flights is kept in memory, so a save normally writes one row and reads none.
+// (flight, version) is unique; an append that loses a race with another instance rereads the head and retries.
+class RosterHistory {
+
+    static final int MAX_CACHED_HEADS = 256;
+    static final int MAX_APPEND_ATTEMPTS = 3;
+
+    record Head(int version, int snapshotVersion, JsonNode roster) {}
+
+    record Save(String flightId, Map<String, Object> roster, Date savedAt) {}
+
+    private final RosterVersionRepository versionRepo;
+    private final TransactionTemplate tx;
+    private final ObjectMapper objectMapper;
+    private final int snapshotEvery;
+    private final ReentrantLock[] locks = new ReentrantLock[64];
+    private final Map<String, Head> heads = Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Head> eldest) { return size() > MAX_CACHED_HEADS; }
+    });
+
+    RosterHistory(RosterVersionRepository versionRepo, TransactionTemplate tx, ObjectMapper objectMapper, int snapshotEvery) {
+        this.versionRepo = versionRepo;
+        this.tx = tx;
+        this.objectMapper = objectMapper;
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantLock();
+    }
+
+    // Records rosterData as the next version of the flight and runs storeWrites (the roster's own writes) in the same
+    // transaction, after the version row, so a failing store write rolls the version back; returns the version number
+    int append(String flightId, Map<String, Object> rosterData, Date savedAt, Runnable storeWrites) throws JsonProcessingException {
+        return appendAll(List.of(new Save(flightId, rosterData, savedAt)), storeWrites).get(0);
+    }
+
+    // The same for several saves in one transaction, versioned in list order (a write-behind batch)
+    List<Integer> appendAll(List<Save> saves, Runnable storeWrites) throws JsonProcessingException {
+        List<String> keys = new ArrayList<>(saves.size());
+        for (Save save : saves) keys.add(MainSystemApi.normalizeFlightId(save.flightId()));
+        // heads change only after a commit, so saves of the same flight are serialized until theirs has committed
+        int[] stripes = keys.stream().mapToInt(key -> Math.floorMod(key.hashCode(), locks.length)).distinct().sorted().toArray();
+        for (int stripe : stripes) locks[stripe].lock();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                Map<String, Head> staged = new HashMap<>();
+                Map<String, Integer> attempted = new HashMap<>();
+                List<Integer> versions;
+                try {
+                    versions = tx.execute(status -> {
+                        List<Integer> numbers = new ArrayList<>(saves.size());
+                        for (int i = 0; i < saves.size(); i++) {
+                            numbers.add(write(keys.get(i), saves.get(i), staged, attempted));
+                        }
+                        storeWrites.run();
+                        return numbers;
+                    });
+                } catch (UncheckedIOException e) {
+                    throw (JsonProcessingException) e.getCause();
+                } catch (DataAccessException e) {
+                    // the SQLite dialect reports the unique index as a generic JpaSystemException, so check for the race
+                    boolean raced = false;
+                    for (Map.Entry<String, Integer> tried : attempted.entrySet()) {
+                        heads.remove(tried.getKey());
+                        Head current = load(tried.getKey(), null);
+                        if (current != null && current.version() >= tried.getValue()) raced = true;
+                    }
+                    if (attempt >= MAX_APPEND_ATTEMPTS || !raced) throw e;
+                    continue;
+                } catch (RuntimeException e) {
+                    for (String key : attempted.keySet()) heads.remove(key);
+                    throw e;
+                }
+                heads.putAll(staged);
+                return versions;
+            }
+        } finally {
+            for (int stripe : stripes) locks[stripe].unlock();
+        }
+    }
+
+    // Inserts the next version row of a flight; staged holds the heads this transaction has written so far
+    private int write(String key, Save save, Map<String, Head> staged, Map<String, Integer> attempted) {
+        try {
+            JsonNode roster = objectMapper.valueToTree(save.roster());
+            Head head = staged.get(key);
+            if (head == null) head = heads.get(key);
+            if (head == null) head = load(key, null);
+            int version = head == null ? 1 : head.version() + 1;
+            boolean snapshot = head == null || version - head.snapshotVersion() >= snapshotEvery;
+            String data = objectMapper.writeValueAsString(roster);
+            if (!snapshot) {
+                String delta = objectMapper.writeValueAsString(diff(head.roster(), roster));
+                if (delta.length() < data.length()) data = delta; else snapshot = true;
+            }
+            attempted.put(key, version);
+            versionRepo.save(new RosterVersion(save.flightId(), key, version, save.savedAt(), snapshot, data));
+            staged.put(key, new Head(version, snapshot ? version : head.snapshotVersion(), roster));
+            return version;
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The roster as saved in the given version, null if the flight has no such version
+    JsonNode version(String flightId, int version) throws JsonProcessingException {
+        Head head = load(MainSystemApi.normalizeFlightId(flightId), version);
+        return head != null ? head.roster() : null;
+    }
+
+    List<Map<String, Object>> versions(String flightId) {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (RosterVersionInfo v : versionRepo.findByNormalizedFlightIdOrderByVersionAsc(MainSystemApi.normalizeFlightId(flightId))) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("version", v.getVersion());
+            m.put("savedAt", v.getSavedAt());
+            m.put("snapshot", v.isSnapshot());
+            m.put("bytes", v.getBytes());
+            list.add(m);
+        }
+        return list;
+    }
+
+    // Rebuilds a version (null = the newest) from the closest snapshot at or before it and the deltas after that
+    private Head load(String key, Integer version) throws JsonProcessingException {
+        int target;
+        if (version != null) {
+            target = version;
+        } else {
+            RosterVersion newest = versionRepo.findTopByNormalizedFlightIdOrderByVersionDesc(key);
+            if (newest == null) return null;
+            target = newest.getVersion();
+        }
+        RosterVersion base = versionRepo.findTopByNormalizedFlightIdAndSnapshotTrueAndVersionLessThanEqualOrderByVersionDesc(key, target);
+        if (base == null) return null;
+        List<RosterVersion> chain = versionRepo.findByNormalizedFlightIdAndVersionBetweenOrderByVersionAsc(key, base.getVersion(), target);
+        if (chain.isEmpty() || chain.get(chain.size() - 1).getVersion() != target) return null;
+        JsonNode roster = objectMapper.readTree(base.getData());
+        for (RosterVersion v : chain) {
+            if (v.getVersion() == base.getVersion()) continue;
+            roster = applyInPlace(roster, (ArrayNode) objectMapper.readTree(v.getData()));
+        }
+        return new Head(target, base.getVersion(), roster);
+    }
+
+    // --- Delta encoding ---
+    // A delta is a JSON array of operations applied in order; path is an array of field names and array indexes.
+    //   ["s", path, value]  sets a field or an array element (index == size appends)
+    //   ["r", path]         removes a field
+    //   ["t", path, n]      truncates an array to n elements
+    // Arrays are compared by position, which is how rosters change (a seat or crew member replaced, passengers added).
+
+    static ArrayNode diff(JsonNode from, JsonNode to) {
+        ArrayNode ops = JsonNodeFactory.instance.arrayNode();
+        diff(from, to, new ArrayList<>(), ops);
+        return ops;
+    }
+
+    private static void diff(JsonNode from, JsonNode to, List<Object> path, ArrayNode ops) {
+        if (from.equals(to)) return;
+        if (from.isObject() && to.isObject()) {
+            for (Iterator<String> names = from.fieldNames(); names.hasNext(); ) {
+                String name = names.next();
+                if (!to.has(name)) ops.add(op("r", path, name));
+            }
+            for (Iterator<Map.Entry<String, JsonNode>> fields = to.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                JsonNode old = from.get(field.getKey());
+                if (old == null) {
+                    ops.add(op("s", path, field.getKey()).add(field.getValue()));
+                } else {
+                    path.add(field.getKey());
+                    diff(old, field.getValue(), path, ops);
+                    path.remove(path.size() - 1);
+                }
+            }
+        } else if (from.isArray() && to.isArray()) {
+            int common = Math.min(from.size(), to.size());
+            for (int i = 0; i < common; i++) {
+                path.add(i);
+                diff(from.get(i), to.get(i), path, ops);
+                path.remove(path.size() - 1);
+            }
+            if (to.size() < from.size()) ops.add(op("t", path, null).add(to.size()));
+            for (int i = common; i < to.size(); i++) ops.add(op("s", path, i).add(to.get(i)));
+        } else {
+            ops.add(pathOp("s", path).add(to));
+        }
+    }
+
+    // A copy of base with the delta applied
+    static JsonNode patch(JsonNode base, ArrayNode ops) {
+        return applyInPlace(base.deepCopy(), ops);
+    }
+
+    private static JsonNode applyInPlace(JsonNode root, ArrayNode ops) {
+        for (JsonNode op : ops) {
+            ArrayNode path = (ArrayNode) op.get(1);
+            String kind = op.get(0).asText();
+            if (kind.equals("t")) {
+                ArrayNode array = (ArrayNode) resolve(root, path, path.size());
+                int size = op.get(2).asInt();
+                while (array.size() > size) array.remove(array.size() - 1);
+                continue;
+            }
+            if (path.isEmpty()) {
+                root = op.get(2).deepCopy();
+                continue;
+            }
+            JsonNode parent = resolve(root, path, path.size() - 1);
+            JsonNode last = path.get(path.size() - 1);
+            if (kind.equals("r")) {
+                ((ObjectNode) parent).remove(last.asText());
+            } else if (parent instanceof ArrayNode array) {
+                JsonNode value = op.get(2).deepCopy();
+                if (last.asInt() == array.size()) array.add(value); else array.set(last.asInt(), value);
+            } else {
+                ((ObjectNode) parent).set(last.asText(), op.get(2).deepCopy());
+            }
+        }
+        return root;
+    }
+
+    private static JsonNode resolve(JsonNode root, ArrayNode path, int depth) {
+        JsonNode node = root;
+        for (int i = 0; i < depth; i++) {
+            JsonNode segment = path.get(i);
+            node = segment.isInt() ? node.get(segment.asInt()) : node.get(segment.asText());
+        }
+        return node;
+    }
+
+    private static ArrayNode op(String kind, List<Object> path, Object last) {
+        ArrayNode op = pathOp(kind, path);
+        if (last != null) {
+            ArrayNode p = (ArrayNode) op.get(1);
+            if (last instanceof Integer i) p.add(i); else p.add((String) last);
+        }
+        return op;
+    }
+
+    private static ArrayNode pathOp(String kind, List<Object> path) {
+        ArrayNode op = JsonNodeFactory.instance.arrayNode().add(kind);
+        ArrayNode p = op.addArray();
+        for (Object segment : path) {
+            if (segment instanceof Integer i) p.add(i); else p.add((String) segment);
+        }
+        return op;
+    }
+}
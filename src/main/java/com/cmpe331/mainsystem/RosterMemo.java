@@ -0,0 +1,96 @@
+package com.cmpe331.mainsystem;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Memoized rosters generated from the services (not the saved ones), one per flight.
+// An entry is used only for the same inputs (a fingerprint of the flight, its vehicle type, shared details and
+// passengers as fetched for the request) and the same pilot/crew snapshots; the TTL only bounds memory use.
+class RosterMemo {
+
+    static final class Entry {
+        final Map<String, Object> roster;
+        final String etag;
+        final String inputs;
+        final long pilotVersion;
+        final long crewVersion;
+        final long createdAtNanos;
+
+        Entry(Map<String, Object> roster, String etag, String inputs, long pilotVersion, long crewVersion, long createdAtNanos) {
+            this.roster = roster; this.etag = etag; this.inputs = inputs;
+            this.pilotVersion = pilotVersion; this.crewVersion = crewVersion; this.createdAtNanos = createdAtNanos;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    RosterMemo(int maxEntries, long ttlSeconds) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) { return size() > RosterMemo.this.maxEntries; }
+        };
+    }
+
+    synchronized Entry get(String flightId, String inputs, long pilotVersion, long crewVersion) {
+        Entry e = entries.get(flightId);
+        if (e != null && e.inputs.equals(inputs) && e.pilotVersion == pilotVersion && e.crewVersion == crewVersion && System.nanoTime() - e.createdAtNanos < ttlNanos) {
+            hits.incrementAndGet();
+            return e;
+        }
+        if (e != null) entries.remove(flightId);
+        misses.incrementAndGet();
+        return null;
+    }
+
+    synchronized void put(String flightId, Map<String, Object> roster, String etag, String inputs, long pilotVersion, long crewVersion) {
+        entries.put(flightId, new Entry(roster, etag, inputs, pilotVersion, crewVersion, System.nanoTime()));
+    }
+
+    synchronized void invalidate(String flightId) { entries.remove(flightId); }
+
+    synchronized void clear() { entries.clear(); }
+
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("entries", entries.size());
+        m.put("maxEntries", maxEntries);
+        m.put("hits", hits.get());
+        m.put("misses", misses.get());
+        return m;
+    }
+
+    // Strong ETag over the given parts (serialized inputs, versions)
+    static String etagOf(byte[]... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] part : parts) {
+                digest.update(part);
+                digest.update((byte) 0);
+            }
+            byte[] hash = digest.digest();
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(java.util.Arrays.copyOf(hash, 16)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // If-None-Match may carry several tags or "*"
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,72 @@
+package com.cmpe331.mainsystem;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Meters of the roster endpoints, exported with everything else at /actuator/prometheus.
+//   roster.downstream       timer per downstream call (call, outcome)
+//   roster.generate         counter (store: sql|mongo|memo|services, outcome)
+//   roster.save             counter (store: sql|mongo|both, outcome: success|queued|invalid|error)
+//   roster.seat.assignment  timer
+//   roster.downstream.resilience  counter (service, event: rejected|hedged|retried|budget_exhausted)
+//   roster.downstream.breaker     gauge per service: 0 closed, 1 half open, 2 open
+//   roster.write.behind     counter of outbox entries (store, outcome: written|coalesced|failed)
+// Percentile histograms are switched on in application.properties.
+class RosterMetrics {
+
+    private final MeterRegistry registry;
+    private final Timer seatAssignment;
+
+    RosterMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.seatAssignment = Timer.builder("roster.seat.assignment")
+                .description("Seat assignment of one roster")
+                .register(registry);
+    }
+
+    // Times one call to a downstream service; exceptions are recorded as outcome=error and rethrown
+    <T> T downstream(String call, Supplier<T> request) {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            T result = request.get();
+            outcome = "success";
+            return result;
+        } finally {
+            Timer.builder("roster.downstream")
+                    .description("Calls from the main system to the flight, pilot, crew and passenger services")
+                    .tags("call", call, "outcome", outcome)
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void generated(String store, String outcome) {
+        Counter.builder("roster.generate").tags("store", store, "outcome", outcome).register(registry).increment();
+    }
+
+    void saved(String store, String outcome) {
+        Counter.builder("roster.save").tags("store", store, "outcome", outcome).register(registry).increment();
+    }
+
+    void writeBehind(String store, String outcome, int entries) {
+        Counter.builder("roster.write.behind").tags("store", store, "outcome", outcome).register(registry).increment(entries);
+    }
+
+    void resilience(String service, String event) {
+        Counter.builder("roster.downstream.resilience").tags("service", service, "event", event).register(registry).increment();
+    }
+
+    void breaker(String service, Supplier<Number> state) {
+        Gauge.builder("roster.downstream.breaker", state).tag("service", service).register(registry);
+    }
+
+    <T> T timeSeatAssignment(Supplier<T> assignment) {
+        return seatAssignment.record(assignment);
+    }
+}
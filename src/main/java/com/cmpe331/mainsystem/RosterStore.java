@@ -0,0 +1,206 @@
+package com.cmpe331.mainsystem;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Persistence of saved rosters in SQLite and/or MongoDB ("both"), without reading the previous roster first.
+//   direct        one upsert per store on the request thread: RosterSqlRepository.upsertLatest (a single SQLite
+//                 statement) and RosterMongoRepository.upsertAll (a single bulk write)
+//   write-behind  (ROSTER_WRITE_BEHIND=1) the request commits the roster to the roster_outbox table and is answered
+//                 once that insert is durable. Each store has a background writer that collects its outbox entries
+//                 ROSTER_WRITE_BEHIND_LINGER_MS after a save, keeps only the newest entry per flight and writes up to
+//                 ROSTER_WRITE_BEHIND_BATCH of them in one transaction / bulk write. Entries of a store that fails stay
+//                 in the outbox and are retried with backoff, so an unreachable Mongo neither loses saves nor holds
+//                 back SQLite. Rows left at shutdown are written after the next start.
+// The roster is encoded once (RosterCodec) and the same bytes go to the outbox and every store.
+// The roster summary is upserted on the request thread in both modes, so the flight list shows the save at once.
+// Each save becomes a RosterHistory version in the transaction that stores it: in direct mode the SQLite upserts,
+// the version row and the Mongo write (last, so its failure rolls the rest back) share one; in write-behind mode the
+// version is written when the writer of the save's first store flushes the entry, together with the outbox delete.
+class RosterStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RosterStore.class);
+
+    static final String SQL = "sql", MONGO = "mongo";
+    static final long MAX_BACKOFF_MS = 30_000;
+
+    private final RosterSqlRepository sqlRepo;
+    private final RosterMongoRepository mongoRepo;
+    private final RosterSummaryRepository summaryRepo;
+    private final RosterOutboxRepository outboxRepo;
+    private final RosterHistory history;
+    private final RosterCodec codec;
+    private final RosterMetrics metrics;
+    private final boolean writeBehind;
+    private final int batchSize;
+    private final int lingerMillis;
+
+    private final Map<String, Writer> writers = new LinkedHashMap<>();
+
+    RosterStore(RosterSqlRepository sqlRepo, RosterMongoRepository mongoRepo, RosterSummaryRepository summaryRepo,
+                RosterOutboxRepository outboxRepo, RosterHistory history, RosterCodec codec, RosterMetrics metrics,
+                boolean writeBehind, int batchSize, int lingerMillis) {
+        this.sqlRepo = sqlRepo;
+        this.mongoRepo = mongoRepo;
+        this.summaryRepo = summaryRepo;
+        this.outboxRepo = outboxRepo;
+        this.history = history;
+        this.codec = codec;
+        this.metrics = metrics;
+        this.writeBehind = writeBehind;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerMillis = Math.max(0, lingerMillis);
+        for (String store : List.of(SQL, MONGO)) writers.put(store, new Writer(store));
+    }
+
+    // "mongo" -> [mongo], "both" -> [sql, mongo], anything else -> [sql]
+    static List<String> storesOf(String dbType) {
+        if ("both".equalsIgnoreCase(dbType)) return List.of(SQL, MONGO);
+        return List.of("mongo".equalsIgnoreCase(dbType) ? MONGO : SQL);
+    }
+
+    boolean isWriteBehind() { return writeBehind; }
+
+    // Writes the roster to every store before returning and returns its history version (direct mode), or queues it
+    // and returns 0: the version is only assigned once the writer has stored it (write-behind)
+    int save(String flightId, Map<String, Object> rosterData, Map flightInfo, Date savedAt, List<String> stores, String label) throws JsonProcessingException {
+        byte[] blob = codec.encode(rosterData);
+        if (writeBehind) {
+            List<RosterOutboxEntry> entries = new ArrayList<>(stores.size());
+            for (String store : stores) entries.add(new RosterOutboxEntry(flightId, store, savedAt, blob, entries.isEmpty()));
+            outboxRepo.saveAll(entries);
+            for (String store : stores) writers.get(store).wakeUp.release();
+            summaryRepo.upsert(RosterSummary.from(flightId, flightInfo, savedAt, label));
+            return 0;
+        }
+        return history.append(flightId, rosterData, savedAt, () -> {
+            if (stores.contains(SQL)) sqlRepo.upsertLatest(flightId, MainSystemApi.normalizeFlightId(flightId), savedAt, blob);
+            summaryRepo.upsert(RosterSummary.from(flightId, flightInfo, savedAt, label));
+            if (stores.contains(MONGO)) mongoRepo.upsertAll(List.of(document(flightId, savedAt, blob)));
+        });
+    }
+
+    void start() {
+        if (!writeBehind) return;
+        for (Writer w : writers.values()) w.start();
+    }
+
+    void stop() {
+        for (Writer w : writers.values()) w.stop();
+    }
+
+    // One pass over the outbox of a store; returns how many entries were read (batchSize means there may be more)
+    int drainOnce(String store) {
+        return writers.get(store).drainOnce();
+    }
+
+    // Each store has its own thread, so a store that hangs (Mongo waits 30s for a server) does not delay the other
+    private final class Writer {
+        final String store;
+        final Semaphore wakeUp = new Semaphore(0);
+        long backoffMillis;
+        volatile Thread thread;
+
+        Writer(String store) { this.store = store; }
+
+        void start() {
+            if (thread == null) thread = Thread.ofPlatform().daemon().name("roster-write-behind-" + store).start(this::run);
+        }
+
+        void stop() {
+            Thread t = thread;
+            if (t != null) t.interrupt();
+        }
+
+        private void run() {
+            boolean more = true; // drain what a previous run left in the outbox
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (backoffMillis > 0) Thread.sleep(backoffMillis);
+                    else if (!more) {
+                        wakeUp.tryAcquire(1, TimeUnit.SECONDS);
+                        // let a burst of saves pile up so it is coalesced and written as one batch
+                        if (lingerMillis > 0) Thread.sleep(lingerMillis);
+                    }
+                    wakeUp.drainPermits();
+                    more = drainOnce() == batchSize;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    log.atWarn().addKeyValue("store", store).setCause(e).log("Roster write-behind pass failed");
+                    more = false;
+                }
+            }
+        }
+
+        int drainOnce() {
+            List<RosterOutboxEntry> batch = outboxRepo.findByStoreOrderByIdAsc(store, PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) return 0;
+
+            // newest entry per flight; older ones are superseded and only deleted
+            Map<String, RosterOutboxEntry> latest = new LinkedHashMap<>();
+            List<Long> ids = new ArrayList<>(batch.size());
+            for (RosterOutboxEntry entry : batch) {
+                latest.put(entry.getFlightId(), entry);
+                ids.add(entry.getId());
+            }
+            try {
+                // every save gets its version, superseded ones included
+                List<RosterHistory.Save> saves = new ArrayList<>();
+                for (RosterOutboxEntry entry : batch) {
+                    if (entry.recordsVersion()) saves.add(new RosterHistory.Save(entry.getFlightId(), codec.decode(entry.getPayload()), entry.getSavedAt()));
+                }
+                if (SQL.equals(store)) {
+                    history.appendAll(saves, () -> { writeSql(latest.values()); outboxRepo.deleteAllByIdInBatch(ids); });
+                } else {
+                    writeMongo(latest.values());
+                    history.appendAll(saves, () -> outboxRepo.deleteAllByIdInBatch(ids));
+                }
+            } catch (IOException | RuntimeException e) {
+                // the entries stay in the outbox; retried after 1s, 2s, 4s ... up to MAX_BACKOFF_MS
+                backoffMillis = Math.min(MAX_BACKOFF_MS, Math.max(1000, backoffMillis * 2));
+                metrics.writeBehind(store, "failed", latest.size());
+                log.atWarn().addKeyValue("store", store).addKeyValue("entries", latest.size()).addKeyValue("retryInMs", backoffMillis)
+                        .log("Roster write-behind failed: {}", e.getMessage());
+                return 0;
+            }
+            backoffMillis = 0;
+            metrics.writeBehind(store, "written", latest.size());
+            metrics.writeBehind(store, "coalesced", ids.size() - latest.size());
+            return batch.size();
+        }
+    }
+
+    private void writeSql(Collection<RosterOutboxEntry> entries) {
+        List<RosterSqlEntity> rosters = new ArrayList<>(entries.size());
+        for (RosterOutboxEntry entry : entries) {
+            RosterSqlEntity roster = new RosterSqlEntity();
+            roster.setFlightId(entry.getFlightId());
+            roster.setGeneratedDate(entry.getSavedAt());
+            roster.setRosterBlob(entry.getPayload());
+            rosters.add(roster);
+        }
+        sqlRepo.upsertAll(rosters);
+    }
+
+    private void writeMongo(Collection<RosterOutboxEntry> entries) {
+        List<RosterDocument> docs = new ArrayList<>(entries.size());
+        for (RosterOutboxEntry entry : entries) docs.add(document(entry.getFlightId(), entry.getSavedAt(), entry.getPayload()));
+        mongoRepo.upsertAll(docs);
+    }
+
+    private static RosterDocument document(String flightId, Date savedAt, byte[] rosterBlob) {
+        RosterDocument doc = new RosterDocument();
+        doc.setFlightId(flightId);
+        doc.setGeneratedDate(savedAt);
+        doc.setRosterBlob(rosterBlob);
+        return doc;
+    }
+}
@@ -0,0 +1,154 @@
+package com.cmpe331.mainsystem;
+
+import com.cmpe331.common.SeatingPlan;
+
+import java.util.*;
+
+// Seat assignment for one flight. The cabin layout (vehicle seatingPlanConfig, numbered by SeatingPlan as in the
+// flight service's seat maps) is compiled once into a Layout; each allocation keeps one free-seat BitSet per pool, in seat order, so taking the next free
+// seat is a nextSetBit and marking a pre-assigned seat is a row lookup.
+// BUSINESS sections form the business pool, every other class the economy pool (rows are numbered
+// continuously across sections, seats are handed out front to back).
+class SeatAllocator {
+
+    static final String BUSINESS = "BUSINESS";
+    static final String STANDBY = "STANDBY";
+    static final String INFANT_LAP = "INFANT (Lap)";
+
+    private static final int ECONOMY_POOL = 0;
+    private static final int BUSINESS_POOL = 1;
+
+    static final class Layout {
+        // per row (1-based): pool, index of the row's first seat within the pool, seat letters
+        final int[] rowPool;
+        final int[] rowBase;
+        final String[] rowLetters;
+        // per pool and seat index: row number and letter
+        final int[][] seatRow;
+        final char[][] seatLetter;
+
+        Layout(int[] rowPool, int[] rowBase, String[] rowLetters, int[][] seatRow, char[][] seatLetter) {
+            this.rowPool = rowPool; this.rowBase = rowBase; this.rowLetters = rowLetters; this.seatRow = seatRow; this.seatLetter = seatLetter;
+        }
+
+        int seats(int pool) { return seatRow[pool].length; }
+
+        // -1 when the label is not a seat of this cabin
+        int indexOf(int pool, String label) {
+            if (label == null || label.length() < 2) return -1;
+            int row = 0;
+            int last = label.length() - 1;
+            for (int i = 0; i < last; i++) {
+                char c = label.charAt(i);
+                if (c < '0' || c > '9' || row > rowPool.length) return -1;
+                row = row * 10 + (c - '0');
+            }
+            if (row <= 0 || row >= rowPool.length || rowPool[row] != pool) return -1;
+            int col = rowLetters[row].indexOf(label.charAt(last));
+            return col < 0 ? -1 : rowBase[row] + col;
+        }
+
+        String label(int pool, int seat) { return seatRow[pool][seat] + String.valueOf(seatLetter[pool][seat]); }
+    }
+
+    static Layout compile(SeatingPlan plan) {
+        int[] poolSeats = new int[2];
+        for (SeatingPlan.Section section : plan.sections()) poolSeats[poolOf(section.className())] += section.seatCount();
+        int[] rowPool = new int[plan.rows() + 1];
+        int[] rowBase = new int[plan.rows() + 1];
+        String[] rowLetters = new String[plan.rows() + 1];
+        int[][] seatRow = { new int[poolSeats[0]], new int[poolSeats[1]] };
+        char[][] seatLetter = { new char[poolSeats[0]], new char[poolSeats[1]] };
+        int[] next = new int[2];
+        for (SeatingPlan.Section section : plan.sections()) {
+            int pool = poolOf(section.className());
+            String letters = section.letters();
+            for (int row = section.firstRow(); row <= section.lastRow(); row++) {
+                rowPool[row] = pool;
+                rowBase[row] = next[pool];
+                rowLetters[row] = letters;
+                for (int c = 0; c < letters.length(); c++, next[pool]++) {
+                    seatRow[pool][next[pool]] = row;
+                    seatLetter[pool][next[pool]] = letters.charAt(c);
+                }
+            }
+        }
+        return new Layout(rowPool, rowBase, rowLetters, seatRow, seatLetter);
+    }
+
+    private static int poolOf(String className) {
+        return BUSINESS.equalsIgnoreCase(className) ? BUSINESS_POOL : ECONOMY_POOL;
+    }
+
+    private final Layout layout;
+    private final BitSet[] free;
+
+    SeatAllocator(Layout layout) {
+        this.layout = layout;
+        this.free = new BitSet[2];
+        for (int pool = 0; pool < 2; pool++) {
+            free[pool] = new BitSet(layout.seats(pool));
+            free[pool].set(0, layout.seats(pool));
+        }
+    }
+
+    // Marks a seat that is already taken; labels outside the cabin are ignored
+    void occupy(String label) {
+        for (int pool = 0; pool < 2; pool++) {
+            int seat = layout.indexOf(pool, label);
+            if (seat >= 0) { free[pool].clear(seat); return; }
+        }
+    }
+
+    // Next free seat of the class, front to back, or null when the class is full
+    String take(String seatType) {
+        int pool = poolOf(seatType);
+        int seat = free[pool].nextSetBit(0);
+        if (seat < 0) return null;
+        free[pool].clear(seat);
+        return layout.label(pool, seat);
+    }
+
+    int remaining(String seatType) { return free[poolOf(seatType)].cardinality(); }
+
+    // Returns the passengers, in order, with seatNumber filled in for those without one. Infants (age <= 2) sit
+    // on a lap; a passenger and the unseated passengers affiliated with them are seated together from the first
+    // passenger's class; whoever does not fit is put on STANDBY.
+    List<PassengerDto> assign(List<PassengerDto> passengers) {
+        PassengerDto[] result = passengers.toArray(new PassengerDto[0]);
+        Map<Long, Integer> positionById = new HashMap<>(result.length * 2);
+        BitSet unseated = new BitSet(result.length);
+
+        for (int i = 0; i < result.length; i++) {
+            PassengerDto p = result[i];
+            if (p.id() != null) positionById.put(p.id(), i);
+            if (p.age() != null && p.age() <= 2) { result[i] = p.withSeat(INFANT_LAP, p.autoAssigned()); continue; }
+            String s = p.seatNumber();
+            if (s != null && !s.isEmpty()) occupy(s);
+            else unseated.set(i);
+        }
+
+        Set<Long> processedIds = new HashSet<>();
+        for (int i = unseated.nextSetBit(0); i >= 0; i = unseated.nextSetBit(i + 1)) {
+            PassengerDto p = result[i];
+            if (p.id() == null || !processedIds.add(p.id())) continue;
+            String seatType = p.seatType();
+            seat(result, i, seatType);
+            if (p.affiliatedPassengerIds() == null) continue;
+            for (Long affId : p.affiliatedPassengerIds()) {
+                if (affId == null || processedIds.contains(affId)) continue;
+                Integer position = positionById.get(affId);
+                if (position != null && unseated.get(position)) {
+                    processedIds.add(affId);
+                    seat(result, position, seatType);
+                }
+            }
+        }
+        return Arrays.asList(result);
+    }
+
+    private void seat(PassengerDto[] passengers, int position, String seatType) {
+        String seat = take(seatType);
+        passengers[position] = seat != null ? passengers[position].withSeat(seat, true) : passengers[position].withSeat(STANDBY, passengers[position].autoAssigned());
+    }
+}
@@ -1,20 +1,36 @@
 package com.cmpe331.passenger;
 
 import jakarta.persistence.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Set;
 import java.util.Random;
@@ -23,12 +39,20 @@ import static org.springframework.security.config.Customizer.withDefaults;
 
 @SpringBootApplication
 public class PassengerApi {
+
+    private static final Logger log = LoggerFactory.getLogger(PassengerApi.class);
+
     public static void main(String[] args) {
         System.setProperty("server.port", "8084");
         System.setProperty("spring.datasource.url", "jdbc:sqlite:passenger_db.sqlite");
         SpringApplication.run(PassengerApi.class, args);
     }
 
+    @Bean
+    PassengerImporter passengerImporter(JdbcTemplate jdbc, TransactionTemplate tx, ObjectMapper mapper) {
+        return new PassengerImporter(jdbc, tx, mapper);
+    }
+
     @Bean
     CommandLineRunner initPassengers(PassengerRepository passengerRepo) {
         return args -> {
@@ -68,7 +92,7 @@ public class PassengerApi {
                 // ==========================================
                 // 2. ADDING CROWDED PASSENGERS (New)
                 // ==========================================
-                System.out.println("Generating random passengers to fill flights...");
+                log.info("Generating random passengers to fill flights...");
 
                 // TK1001 (Embraer E195 - Regional)
                 // Business: 1-3 row (1+2 layout: A - D F), Economy: 5-16 row (2+2 layout: A C - D F)
@@ -85,7 +109,7 @@ public class PassengerApi {
                 fillFlight(passengerRepo, "TK3030", "BUSINESS", 2, 5, new String[]{"A", "C", "D", "G", "H", "K"});
                 fillFlight(passengerRepo, "TK3030", "ECONOMY", 10, 35, new String[]{"A", "B", "C", "D", "E", "F", "G", "H", "J", "K"});
 
-                System.out.println("--- PASSENGER DB SEEDED WITH MASSIVE CROWD ---");
+                log.info("--- PASSENGER DB SEEDED WITH MASSIVE CROWD ---");
             }
         };
     }
@@ -118,24 +142,87 @@ public class PassengerApi {
 @Configuration @EnableWebSecurity
 class SecurityConfig {
     @Bean public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
-        http.csrf(c -> c.disable()).authorizeHttpRequests(a -> a.anyRequest().permitAll()).httpBasic(withDefaults()); return http.build();
+        // reads stay open to the other services; the bulk import writes passengers, so it takes the admin login
+        http.csrf(c -> c.disable())
+            .authorizeHttpRequests(a -> a
+                .requestMatchers(HttpMethod.POST, "/api/passengers/import").hasRole("ADMIN")
+                .anyRequest().permitAll())
+            .httpBasic(withDefaults());
+        return http.build();
     }
     @Bean public InMemoryUserDetailsManager userDetailsService() {
-        return new InMemoryUserDetailsManager(User.withDefaultPasswordEncoder().username("admin").password("password").roles("USER").build());
+        return new InMemoryUserDetailsManager(User.withDefaultPasswordEncoder().username("admin").password("password").roles("ADMIN").build());
     }
 }
 
 @RestController @RequestMapping("/api/passengers") @CrossOrigin(origins = "*")
 class PassengerController {
+    static final int MANIFEST_PAGE_SIZE = 500;
+
     private final PassengerRepository repo;
-    public PassengerController(PassengerRepository repo) { this.repo = repo; }
+    private final ObjectMapper mapper;
+    private final PassengerImporter importer;
+    public PassengerController(PassengerRepository repo, ObjectMapper mapper, PassengerImporter importer) { this.repo = repo; this.mapper = mapper; this.importer = importer; }
     @GetMapping public List<Passenger> getAll() { return repo.findAll(); }
     @GetMapping("/flight/{flightId}") public ResponseEntity<List<Passenger>> getByFlight(@PathVariable("flightId") String flightId) { return ResponseEntity.ok(repo.findByFlightId(flightId)); }
+
+    // Passengers of a flight as NDJSON, one passenger per line in id order. Read in keyset pages of MANIFEST_PAGE_SIZE
+    // (ids after the last one sent, then the page with its affiliations in one join), so memory stays flat however
+    // large the flight is. A client resumes or pages with afterId = id of the last line it got, limit caps the lines.
+    @GetMapping("/flight/{flightId}/manifest")
+    public ResponseEntity<StreamingResponseBody> getManifest(@PathVariable("flightId") String flightId,
+                                                             @RequestParam(value = "afterId", defaultValue = "0") long afterId,
+                                                             @RequestParam(value = "limit", required = false) Integer limit) {
+        int max = limit != null ? Math.max(0, limit) : Integer.MAX_VALUE;
+        StreamingResponseBody body = out -> {
+            long cursor = afterId;
+            int written = 0;
+            while (written < max) {
+                int pageSize = Math.min(MANIFEST_PAGE_SIZE, max - written);
+                List<Long> ids = repo.findIdsByFlightIdAfter(flightId, cursor, PageRequest.of(0, pageSize));
+                if (ids.isEmpty()) break;
+                for (Passenger p : repo.findWithAffiliationsByIdIn(ids)) {
+                    out.write(mapper.writeValueAsBytes(p));
+                    out.write('\n');
+                }
+                out.flush();
+                written += ids.size();
+                cursor = ids.get(ids.size() - 1);
+                if (ids.size() < pageSize) break;
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    // Bulk load of a booking extract streamed as CSV (header row) or NDJSON, see PassengerImporter for the fields.
+    // Rows are committed in chunks: on a failure half way, the chunks before it stay imported and the 500 carries
+    // the report of those, with failedAtLine where to resume. The cause is only logged.
+    @PostMapping(value = "/import", consumes = {"text/csv", "application/x-ndjson"})
+    public ResponseEntity<PassengerImporter.ImportReport> importPassengers(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType, InputStream body) throws IOException {
+        try {
+            PassengerImporter.ImportReport report = MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.parseMediaType("text/csv"))
+                    ? importer.importCsv(body) : importer.importNdjson(body);
+            return ResponseEntity.ok(report);
+        } catch (PassengerImporter.ImportFailed e) {
+            return ResponseEntity.internalServerError().body(e.report);
+        }
+    }
 }
 
-interface PassengerRepository extends JpaRepository<Passenger, Long> { List<Passenger> findByFlightId(String flightId); }
+interface PassengerRepository extends JpaRepository<Passenger, Long> {
+    // affiliations come with the passengers in the same select instead of one query per passenger
+    @EntityGraph(attributePaths = "affiliatedPassengerIds")
+    List<Passenger> findByFlightId(String flightId);
+
+    @Query("select p.id from Passenger p where p.flightId = :flightId and p.id > :afterId order by p.id")
+    List<Long> findIdsByFlightIdAfter(@Param("flightId") String flightId, @Param("afterId") long afterId, Pageable page);
+
+    @Query("select p from Passenger p left join fetch p.affiliatedPassengerIds where p.id in :ids order by p.id")
+    List<Passenger> findWithAffiliationsByIdIn(@Param("ids") List<Long> ids);
+}
 
-@Entity @Table(name = "passengers")
+// (flight_id, id) serves both the flight lookups and the manifest's keyset order
+@Entity @Table(name = "passengers", indexes = @Index(name = "idx_passengers_flight_id", columnList = "flight_id, id"))
 class Passenger {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY) private Long id;
     private String name; private int age; private String gender; private String nationality;
@@ -0,0 +1,348 @@
+package com.cmpe331.passenger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Bulk load of booking extracts (CSV with a header row, or NDJSON) into passengers / passenger_affiliations.
+// The body is read as a stream and written with JDBC batch inserts, CHUNK_ROWS rows per transaction. IDENTITY keys
+// cannot be batched, so each chunk inserts its first row without an id and numbers the rest after the id SQLite gave
+// it. That insert takes the database's write lock, which is held until the chunk commits, so no other import or JPA
+// save can claim those ids in between (reading max(id) first would only have taken a read lock).
+//
+// Columns / fields: name, age, gender, nationality, flightId, seatType, seatNumber, plus optionally
+//   parentId, affiliatedPassengerIds   ids of passengers already in the database
+//   ref, parentRef, affiliatedRefs     a booking key of this row and keys of other rows in the same extract
+// Lists are JSON arrays in NDJSON and '|'-separated in CSV. Refs may point forward; they are linked after the last row.
+// Invalid rows are skipped and reported, everything else is imported; so are rows whose parentId or
+// affiliatedPassengerIds name passengers that are not in the database. If a chunk cannot be written (or the body
+// stops half way), the import stops there and ImportFailed carries the report of what was committed before it.
+class PassengerImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(PassengerImporter.class);
+
+    static final int CHUNK_ROWS = 10_000;
+    static final int MAX_REPORTED_ERRORS = 100;
+
+    private static final String INSERT_NEW_PASSENGER = "insert into passengers (name, age, gender, nationality, flight_id, seat_type, seat_number, parent_id) values (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_PASSENGER = "insert into passengers (id, name, age, gender, nationality, flight_id, seat_type, seat_number, parent_id) values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_AFFILIATION = "insert into passenger_affiliations (passenger_id, affiliated_id) values (?, ?)";
+    private static final String SET_PARENT = "update passengers set parent_id = ? where id = ?";
+
+    static final int ID_LOOKUP_BATCH = 500;
+
+    // failedAtLine is the line the import stopped at when it could not finish, null when it ran to the end
+    record ImportReport(long imported, long rejected, long affiliations, long unresolvedRefs, double seconds, long rowsPerSecond,
+                        List<String> errors, Long failedAtLine) {}
+
+    static class ImportFailed extends RuntimeException {
+        final ImportReport report;
+
+        ImportFailed(ImportReport report, Throwable cause) {
+            super("Passenger import stopped at line " + report.failedAtLine(), cause);
+            this.report = report;
+        }
+    }
+
+    record Row(String name, int age, String gender, String nationality, String flightId, String seatType, String seatNumber,
+               Long parentId, List<Long> affiliatedIds, String ref, String parentRef, List<String> affiliatedRefs) {}
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final ObjectMapper mapper;
+
+    PassengerImporter(JdbcTemplate jdbc, TransactionTemplate tx, ObjectMapper mapper) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.mapper = mapper;
+    }
+
+    ImportReport importCsv(InputStream in) throws IOException {
+        Run run = new Run();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String header = reader.readLine();
+        if (header == null) return run.finish();
+        run.lineNo = 1;
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = parseCsvLine(header.startsWith("\uFEFF") ? header.substring(1) : header);
+        for (int i = 0; i < names.size(); i++) columns.put(names.get(i).trim().toLowerCase(), i);
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                run.lineNo++;
+                if (line.isBlank()) continue;
+                Row row;
+                try {
+                    List<String> cells = parseCsvLine(line);
+                    row = toRow(column -> {
+                        Integer i = columns.get(column.toLowerCase());
+                        return i == null || i >= cells.size() || cells.get(i).isBlank() ? null : cells.get(i).trim();
+                    }, value -> Arrays.asList(value.split("\\|")));
+                } catch (IllegalArgumentException e) {
+                    run.reject(run.lineNo, e.getMessage());
+                    continue;
+                }
+                run.add(row);
+            }
+            return run.finish();
+        } catch (IOException | RuntimeException e) {
+            throw run.failed(e);
+        }
+    }
+
+    ImportReport importNdjson(InputStream in) throws IOException {
+        Run run = new Run();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                run.lineNo++;
+                if (line.isBlank()) continue;
+                Row row;
+                try {
+                    JsonNode node = mapper.readTree(line);
+                    if (!node.isObject()) throw new IllegalArgumentException("not a JSON object");
+                    row = toRow(field -> {
+                        JsonNode value = node.get(field);
+                        if (value == null || value.isNull()) return null;
+                        return value.isArray() ? value.toString() : value.asText();
+                    }, value -> {
+                        List<String> items = new ArrayList<>();
+                        try {
+                            for (JsonNode item : mapper.readTree(value)) items.add(item.asText());
+                        } catch (IOException e) {
+                            items.add(value);
+                        }
+                        return items;
+                    });
+                } catch (IOException e) {
+                    run.reject(run.lineNo, "invalid JSON");
+                    continue;
+                } catch (IllegalArgumentException e) {
+                    run.reject(run.lineNo, e.getMessage());
+                    continue;
+                }
+                run.add(row);
+            }
+            return run.finish();
+        } catch (IOException | RuntimeException e) {
+            throw run.failed(e);
+        }
+    }
+
+    interface Fields { String get(String name); }
+
+    interface Lists { List<String> split(String value); }
+
+    static Row toRow(Fields fields, Lists lists) {
+        String name = fields.get("name");
+        String flightId = fields.get("flightId");
+        if (name == null) throw new IllegalArgumentException("name is missing");
+        if (flightId == null) throw new IllegalArgumentException("flightId is missing");
+        String age = fields.get("age");
+        if (age == null) throw new IllegalArgumentException("age is missing");
+        int parsedAge;
+        try { parsedAge = Integer.parseInt(age.trim()); } catch (NumberFormatException e) { throw new IllegalArgumentException("age is not a number"); }
+        if (parsedAge < 0 || parsedAge > 130) throw new IllegalArgumentException("age out of range");
+
+        List<Long> affiliatedIds = new ArrayList<>();
+        String ids = fields.get("affiliatedPassengerIds");
+        if (ids != null) {
+            for (String id : lists.split(ids)) {
+                if (!id.isBlank()) affiliatedIds.add(parseId(id, "affiliatedPassengerIds"));
+            }
+        }
+        List<String> affiliatedRefs = new ArrayList<>();
+        String refs = fields.get("affiliatedRefs");
+        if (refs != null) {
+            for (String ref : lists.split(refs)) {
+                if (!ref.isBlank()) affiliatedRefs.add(ref.trim());
+            }
+        }
+        String parentId = fields.get("parentId");
+        // same canonical form the main system looks flights up by ("tk 1001" -> "TK1001")
+        return new Row(name, parsedAge, fields.get("gender"), fields.get("nationality"), flightId.replaceAll("\\s+", "").toUpperCase(),
+                fields.get("seatType"), fields.get("seatNumber"), parentId != null ? parseId(parentId, "parentId") : null,
+                affiliatedIds, fields.get("ref"), fields.get("parentRef"), affiliatedRefs);
+    }
+
+    private static long parseId(String value, String field) {
+        try { return Long.parseLong(value.trim()); } catch (NumberFormatException e) { throw new IllegalArgumentException(field + " is not an id"); }
+    }
+
+    // One CSV record on one line: comma separated, fields may be quoted with "" as an escaped quote
+    static List<String> parseCsvLine(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') { cell.append('"'); i++; }
+                else if (c == '"') quoted = false;
+                else cell.append(c);
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quote");
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    // State of one import: the open chunk (with the line of each row), ids of the refs seen so far and the ref links still to write
+    private final class Run {
+        final long startNanos = System.nanoTime();
+        final List<Row> chunk = new ArrayList<>(CHUNK_ROWS);
+        final List<Long> chunkLines = new ArrayList<>(CHUNK_ROWS);
+        final Map<String, Long> idsByRef = new HashMap<>();
+        final List<Long> parentLinks = new ArrayList<>();      // passenger ids, parallel to parentRefs
+        final List<String> parentRefs = new ArrayList<>();
+        final List<Long> affiliationLinks = new ArrayList<>(); // passenger ids, parallel to affiliationRefs
+        final List<String> affiliationRefs = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        long imported, rejected, affiliations, unresolved;
+        long lineNo;
+        boolean linking;
+
+        void add(Row row) {
+            chunk.add(row);
+            chunkLines.add(lineNo);
+            if (chunk.size() >= CHUNK_ROWS) flush();
+        }
+
+        void reject(long lineNo, String reason) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) errors.add("line " + lineNo + ": " + reason);
+        }
+
+        void flush() {
+            dropUnknownReferences();
+            if (chunk.isEmpty()) return;
+            long firstId = tx.execute(status -> {
+                Row first = chunk.get(0);
+                jdbc.update(INSERT_NEW_PASSENGER, first.name(), first.age(), first.gender(), first.nationality(), first.flightId(), first.seatType(), first.seatNumber(), first.parentId());
+                long nextId = jdbc.queryForObject("select last_insert_rowid()", Long.class);
+                List<Object[]> passengers = new ArrayList<>(chunk.size());
+                List<Object[]> links = new ArrayList<>();
+                for (int i = 0; i < chunk.size(); i++) {
+                    Row row = chunk.get(i);
+                    long id = nextId + i;
+                    if (i > 0) passengers.add(new Object[]{id, row.name(), row.age(), row.gender(), row.nationality(), row.flightId(), row.seatType(), row.seatNumber(), row.parentId()});
+                    for (Long affiliated : row.affiliatedIds()) links.add(new Object[]{id, affiliated});
+                }
+                if (!passengers.isEmpty()) jdbc.batchUpdate(INSERT_PASSENGER, passengers);
+                if (!links.isEmpty()) jdbc.batchUpdate(INSERT_AFFILIATION, links);
+                affiliations += links.size();
+                return nextId;
+            });
+            for (int i = 0; i < chunk.size(); i++) {
+                Row row = chunk.get(i);
+                long id = firstId + i;
+                if (row.ref() != null) idsByRef.put(row.ref(), id);
+                if (row.parentRef() != null) { parentLinks.add(id); parentRefs.add(row.parentRef()); }
+                for (String ref : row.affiliatedRefs()) { affiliationLinks.add(id); affiliationRefs.add(ref); }
+            }
+            imported += chunk.size();
+            chunk.clear();
+            chunkLines.clear();
+        }
+
+        // Rejects the rows of the chunk whose parentId or affiliatedPassengerIds are not passengers in the database
+        private void dropUnknownReferences() {
+            Set<Long> referenced = new HashSet<>();
+            for (Row row : chunk) {
+                if (row.parentId() != null) referenced.add(row.parentId());
+                referenced.addAll(row.affiliatedIds());
+            }
+            if (referenced.isEmpty()) return;
+            Set<Long> known = new HashSet<>();
+            List<Long> ids = new ArrayList<>(referenced);
+            for (int from = 0; from < ids.size(); from += ID_LOOKUP_BATCH) {
+                List<Long> batch = ids.subList(from, Math.min(from + ID_LOOKUP_BATCH, ids.size()));
+                String placeholders = String.join(",", Collections.nCopies(batch.size(), "?"));
+                known.addAll(jdbc.queryForList("select id from passengers where id in (" + placeholders + ")", Long.class, batch.toArray()));
+            }
+            if (known.size() == referenced.size()) return;
+            int kept = 0;
+            for (int i = 0; i < chunk.size(); i++) {
+                Row row = chunk.get(i);
+                String unknown = row.parentId() != null && !known.contains(row.parentId()) ? "unknown parentId " + row.parentId()
+                        : row.affiliatedIds().stream().filter(id -> !known.contains(id)).findFirst().map(id -> "unknown affiliatedPassengerId " + id).orElse(null);
+                if (unknown != null) {
+                    reject(chunkLines.get(i), unknown);
+                } else {
+                    chunk.set(kept, row);
+                    chunkLines.set(kept++, chunkLines.get(i));
+                }
+            }
+            chunk.subList(kept, chunk.size()).clear();
+            chunkLines.subList(kept, chunkLines.size()).clear();
+        }
+
+        ImportReport finish() {
+            flush();
+            linking = true;
+            List<Object[]> parents = new ArrayList<>();
+            for (int i = 0; i < parentLinks.size(); i++) {
+                Long parent = idsByRef.get(parentRefs.get(i));
+                if (parent == null) unresolved(parentRefs.get(i));
+                else parents.add(new Object[]{parent, parentLinks.get(i)});
+            }
+            List<Object[]> links = new ArrayList<>();
+            for (int i = 0; i < affiliationLinks.size(); i++) {
+                Long affiliated = idsByRef.get(affiliationRefs.get(i));
+                if (affiliated == null) unresolved(affiliationRefs.get(i));
+                else links.add(new Object[]{affiliationLinks.get(i), affiliated});
+            }
+            if (!parents.isEmpty() || !links.isEmpty()) {
+                tx.executeWithoutResult(status -> {
+                    if (!parents.isEmpty()) jdbc.batchUpdate(SET_PARENT, parents);
+                    if (!links.isEmpty()) jdbc.batchUpdate(INSERT_AFFILIATION, links);
+                });
+                affiliations += links.size();
+            }
+
+            ImportReport report = report(null);
+            log.atInfo().addKeyValue("imported", imported).addKeyValue("rejected", rejected).addKeyValue("rowsPerSecond", report.rowsPerSecond()).log("Passenger import finished");
+            return report;
+        }
+
+        // The chunks committed so far stay. What was lost is the open chunk and everything after it, so the import
+        // stopped at the chunk's first line (or the line being read); once every row is in, only the ref links are lost.
+        ImportFailed failed(Exception cause) {
+            long failedAt = chunkLines.isEmpty() ? lineNo : chunkLines.get(0);
+            errors.add(linking ? "import stopped before the refs were linked"
+                    : "line " + failedAt + ": import stopped, rows from this line on were not imported");
+            log.atWarn().addKeyValue("imported", imported).addKeyValue("failedAtLine", failedAt).setCause(cause).log("Passenger import stopped");
+            return new ImportFailed(report(failedAt), cause);
+        }
+
+        private ImportReport report(Long failedAtLine) {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            long rate = seconds > 0 ? Math.round(imported / seconds) : imported;
+            return new ImportReport(imported, rejected, affiliations, unresolved, Math.round(seconds * 1000) / 1000.0, rate, errors, failedAtLine);
+        }
+
+        private void unresolved(String ref) {
+            unresolved++;
+            if (errors.size() < MAX_REPORTED_ERRORS) errors.add("unknown ref: " + ref);
+        }
+    }
+}
@@ -1,12 +1,30 @@
 package com.cmpe331.pilot;
 
+import com.cmpe331.common.AfterCommit;
+import com.cmpe331.serving.ServingSnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import jakarta.persistence.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.core.userdetails.User;
@@ -14,19 +32,32 @@ import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 import static org.springframework.security.config.Customizer.withDefaults;
 
 @SpringBootApplication
 public class PilotApi {
+
+    private static final Logger log = LoggerFactory.getLogger(PilotApi.class);
+
     public static void main(String[] args) {
         System.setProperty("server.port", "8082");
         System.setProperty("spring.datasource.url", "jdbc:sqlite:pilot_db.sqlite");
         SpringApplication.run(PilotApi.class, args);
     }
 
+    // Eligibility lookups match the vehicle case-insensitively, as upper(allowed_vehicle_type) (Spring Data's IgnoreCase).
+    // Equality on that, then seniority, range scan on allowedRangeKm; JPA cannot declare an index on an expression.
+    // The exact-match index it replaces is dropped from databases created before.
+    @Bean
+    CommandLineRunner eligibilityIndex(JdbcTemplate jdbc) {
+        return args -> {
+            jdbc.execute("CREATE INDEX IF NOT EXISTS idx_pilots_eligibility_nocase ON pilots (upper(allowed_vehicle_type), seniority_level, allowed_range_km)");
+            jdbc.execute("DROP INDEX IF EXISTS idx_pilots_eligibility");
+        };
+    }
+
     @Bean
     CommandLineRunner initPilots(PilotRepository pilotRepo) {
         return args -> {
@@ -77,7 +108,7 @@ public class PilotApi {
                 pilotRepo.save(createPilot("Tr. Lena Meyer", 23, "Female", "Germany", 2000, "Embraer E195", "TRAINEE", Set.of("German", "English")));
                 pilotRepo.save(createPilot("Tr. Arda Turan", 22, "Male", "Turkey", 2000, "Embraer E195", "TRAINEE", Set.of("Turkish", "English")));
 
-                System.out.println("--- PILOT DB SEEDED WITH EXTENSIVE DATA ---");
+                log.info("--- PILOT DB SEEDED WITH EXTENSIVE DATA ---");
             }
         };
     }
@@ -100,15 +131,105 @@ class SecurityConfig {
 }
 
 @RestController @RequestMapping("/api/pilots") @CrossOrigin(origins = "*")
+@ConditionalOnProperty(name = "serving.in-memory", havingValue = "false", matchIfMissing = true)
 class PilotController {
     private final PilotRepository repo;
     public PilotController(PilotRepository repo) { this.repo = repo; }
     @GetMapping public List<Pilot> getAll() { return repo.findAll(); }
+
+    // Only the pilots that can fly this vehicle over this distance cross the wire; the vehicle matches ignoring case
+    @GetMapping("/eligible")
+    public List<Pilot> getEligible(@RequestParam("vehicle") String vehicle,
+                                   @RequestParam(value = "minRangeKm", defaultValue = "0") int minRangeKm,
+                                   @RequestParam(value = "seniority", required = false) String seniority,
+                                   @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        Pageable page = PageRequest.of(0, Math.max(1, Math.min(limit, MAX_ELIGIBLE_LIMIT)), Sort.by("id"));
+        if (seniority == null || seniority.isBlank()) return repo.findByAllowedVehicleTypeIgnoreCaseAndAllowedRangeKmGreaterThanEqual(vehicle, minRangeKm, page);
+        return repo.findByAllowedVehicleTypeIgnoreCaseAndSeniorityLevelAndAllowedRangeKmGreaterThanEqual(vehicle, seniority.trim().toUpperCase(), minRangeKm, page);
+    }
+
+    static final int MAX_ELIGIBLE_LIMIT = 100;
 }
 
-interface PilotRepository extends JpaRepository<Pilot, Long> {}
+// serving.in-memory=true: the same endpoints answered from a ServingSnapshot instead of SQLite. Each pilot is
+// serialized once per rebuild and responses are those bytes joined, so a read is a list scan and one array copy.
+@RestController @RequestMapping("/api/pilots") @CrossOrigin(origins = "*")
+@ConditionalOnProperty(name = "serving.in-memory", havingValue = "true")
+class PilotServingController {
+    record Entry(String seniorityLevel, int allowedRangeKm, byte[] json) {}
+    // byVehicle is keyed by the lower-cased vehicle, its lists are in id order, like the repository's paged queries
+    record Snapshot(byte[] all, Map<String, List<Entry>> byVehicle) {}
+
+    private final PilotRepository repo;
+    private final ObjectMapper mapper;
+    private final long refreshSeconds;
+    private final ServingSnapshot<Snapshot> snapshot;
+
+    public PilotServingController(PilotRepository repo, ObjectMapper mapper, @Value("${serving.refresh-seconds:300}") long refreshSeconds) {
+        this.repo = repo; this.mapper = mapper; this.refreshSeconds = refreshSeconds;
+        this.snapshot = new ServingSnapshot<>("pilots", this::load);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE) public byte[] getAll() { return snapshot.get().all(); }
+
+    @GetMapping(value = "/eligible", produces = MediaType.APPLICATION_JSON_VALUE)
+    public byte[] getEligible(@RequestParam("vehicle") String vehicle,
+                              @RequestParam(value = "minRangeKm", defaultValue = "0") int minRangeKm,
+                              @RequestParam(value = "seniority", required = false) String seniority,
+                              @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        int max = Math.max(1, Math.min(limit, PilotController.MAX_ELIGIBLE_LIMIT));
+        String level = seniority == null || seniority.isBlank() ? null : seniority.trim().toUpperCase();
+        List<byte[]> found = new ArrayList<>(max);
+        for (Entry e : snapshot.get().byVehicle().getOrDefault(vehicle.toLowerCase(Locale.ROOT), List.of())) {
+            if (e.allowedRangeKm() < minRangeKm || (level != null && !level.equals(e.seniorityLevel()))) continue;
+            found.add(e.json());
+            if (found.size() == max) break;
+        }
+        return ServingSnapshot.jsonArray(found);
+    }
+
+    @GetMapping("/serving-stats") public Map<String, Object> getServingStats() { return snapshot.stats(); }
+
+    @EventListener(ApplicationReadyEvent.class) public void start() { snapshot.start(refreshSeconds); }
+    @PreDestroy public void stop() { snapshot.close(); }
+    void dataChanged() { snapshot.changed(); }
+
+    Snapshot load() {
+        List<Pilot> pilots = new ArrayList<>(repo.findAll());
+        pilots.sort(Comparator.comparing(Pilot::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+        List<byte[]> all = new ArrayList<>(pilots.size());
+        Map<String, List<Entry>> byVehicle = new HashMap<>();
+        for (Pilot p : pilots) {
+            byte[] json = toJson(p);
+            all.add(json);
+            if (p.getAllowedVehicleType() == null) continue;
+            byVehicle.computeIfAbsent(p.getAllowedVehicleType().toLowerCase(Locale.ROOT), v -> new ArrayList<>()).add(new Entry(p.getSeniorityLevel(), p.getAllowedRangeKm(), json));
+        }
+        byVehicle.replaceAll((v, entries) -> List.copyOf(entries));
+        return new Snapshot(ServingSnapshot.jsonArray(all), Map.copyOf(byVehicle));
+    }
+
+    private byte[] toJson(Pilot p) {
+        try { return mapper.writeValueAsBytes(p); } catch (JsonProcessingException e) { throw new IllegalStateException("Cannot serialize pilot " + p.getId(), e); }
+    }
+}
+
+// Reports pilot writes to the serving snapshot once they commit; a no-op unless serving.in-memory is on
+class PilotChangeListener {
+    private final ObjectProvider<PilotServingController> serving;
+    public PilotChangeListener(ObjectProvider<PilotServingController> serving) { this.serving = serving; }
+
+    @PostPersist @PostUpdate @PostRemove
+    public void onChange(Object entity) { AfterCommit.run(() -> serving.ifAvailable(PilotServingController::dataChanged)); }
+}
+
+interface PilotRepository extends JpaRepository<Pilot, Long> {
+    List<Pilot> findByAllowedVehicleTypeIgnoreCaseAndAllowedRangeKmGreaterThanEqual(String allowedVehicleType, int minRangeKm, Pageable page);
+    List<Pilot> findByAllowedVehicleTypeIgnoreCaseAndSeniorityLevelAndAllowedRangeKmGreaterThanEqual(String allowedVehicleType, String seniorityLevel, int minRangeKm, Pageable page);
+}
 
-@Entity @Table(name = "pilots")
+// The eligibility lookup's index is idx_pilots_eligibility_nocase, see PilotApi.eligibilityIndex
+@Entity @EntityListeners(PilotChangeListener.class) @Table(name = "pilots")
 class Pilot {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY) private Long id;
     private String name; private int age; private String gender; private String nationality;
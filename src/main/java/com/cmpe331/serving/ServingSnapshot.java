@@ -0,0 +1,105 @@
+package com.cmpe331.serving;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+// Immutable read model of a reference-data service (serving.in-memory=true). Readers take the current snapshot
+// with one volatile read and never lock; a rebuild loads a complete new snapshot off to the side and swaps the
+// reference, so a request sees either the old or the new data, never a mix. Rebuilds run on a single daemon
+// thread: as soon as a committed change is reported (changes reported before the rebuild starts share it), and
+// every serving.refresh-seconds for writes that bypass the application.
+public final class ServingSnapshot<S> {
+
+    private static final Logger log = LoggerFactory.getLogger(ServingSnapshot.class);
+
+    private final String name;
+    private final Supplier<S> loader;
+    private final ScheduledExecutorService rebuilder;
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private volatile S current;
+    private volatile long version;
+    private volatile long builtAtMillis;
+    private volatile long buildMillis;
+
+    public ServingSnapshot(String name, Supplier<S> loader) {
+        this.name = name;
+        this.loader = loader;
+        this.rebuilder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public S get() {
+        S s = current;
+        return s != null ? s : rebuild();
+    }
+
+    // Builds the first snapshot now and refreshes it every refreshSeconds (0 disables the periodic reload)
+    public void start(long refreshSeconds) {
+        rebuild();
+        if (refreshSeconds > 0) rebuilder.scheduleWithFixedDelay(this::rebuildQuietly, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    // Called after a change has committed (the entity listeners defer it with AfterCommit), so the reload sees it
+    public void changed() {
+        if (rebuildPending.compareAndSet(false, true)) {
+            rebuilder.execute(() -> { rebuildPending.set(false); rebuildQuietly(); });
+        }
+    }
+
+    public synchronized S rebuild() {
+        long start = System.nanoTime();
+        S next = loader.get();
+        current = next;
+        version++;
+        builtAtMillis = System.currentTimeMillis();
+        buildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.atInfo().addKeyValue("snapshot", name).addKeyValue("version", version).addKeyValue("buildMillis", buildMillis).log("Serving snapshot rebuilt");
+        return next;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("mode", "in-memory"); m.put("version", version); m.put("builtAtMillis", builtAtMillis); m.put("buildMillis", buildMillis);
+        return m;
+    }
+
+    public void close() { rebuilder.shutdownNow(); }
+
+    // A failed reload keeps serving the previous snapshot
+    private void rebuildQuietly() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            log.atWarn().addKeyValue("snapshot", name).setCause(e).log("Serving snapshot rebuild failed, keeping the previous one");
+        }
+    }
+
+    // JSON array out of already serialized elements
+    public static byte[] jsonArray(List<byte[]> elements) {
+        int size = 2 + Math.max(0, elements.size() - 1);
+        for (byte[] e : elements) size += e.length;
+        byte[] out = new byte[size];
+        int pos = 0;
+        out[pos++] = '[';
+        for (int i = 0; i < elements.size(); i++) {
+            if (i > 0) out[pos++] = ',';
+            byte[] e = elements.get(i);
+            System.arraycopy(e, 0, out, pos, e.length);
+            pos += e.length;
+        }
+        out[pos] = ']';
+        return out;
+    }
+}
@@ -0,0 +1,289 @@
+package com.cmpe331.mainsystem;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Open-loop load test of the main system against StubServices, on one machine and without network access.
+// Starts the stubs on 8081-8084 and MainSystemApi on 8080 (its own JVM, SQLite file under target/, no MongoDB),
+// fires generate/save/flights requests at a fixed rate and prints latency percentiles and throughput.
+// Latency is measured from each request's scheduled send time, so a stalled server shows up in the tail.
+//
+//   mvn -Pperf test-compile exec:exec -Dperf.main=com.cmpe331.mainsystem.LoadHarness \
+//       -Dperf.args="--rps 50 --duration 60 --latency-ms 40 --jitter-ms 20 --error-rate 0.01 --scale 10"
+//
+// Options (defaults): --rps 20  --duration 30  --warmup 10  --mix generate=80,flights=15,save=5  --force-new false
+//                     --latency-ms 20  --jitter-ms 10  --error-rate 0  --scale 1  --max-in-flight 2000
+//                     --main-url <url of an already running main system; skips starting one>
+//                     --mongo-uri <MongoDB for the started main system; by default there is none and lookups fail fast>
+//                     --stubs-only (serve the stubs until killed, e.g. for a main system started from the IDE)
+public class LoadHarness {
+
+    private static final String TEMPLATE_FLIGHT = "__FLIGHT__";
+    // Nothing listens there; server selection gives up at once instead of after the driver's default 30s
+    private static final String NO_MONGO = "mongodb://localhost:27017/rosterdb?serverSelectionTimeoutMS=1&connectTimeoutMS=200";
+    private static final String AUTH = "Basic " + Base64.getEncoder().encodeToString("admin:password".getBytes(StandardCharsets.UTF_8));
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        int scale = Integer.parseInt(options.getOrDefault("scale", "1"));
+        ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().modules(new BlackbirdModule()).build();
+        SyntheticFleet fleet = new SyntheticFleet(scale);
+
+        try (StubServices stubs = new StubServices(fleet,
+                Integer.parseInt(options.getOrDefault("latency-ms", "20")),
+                Integer.parseInt(options.getOrDefault("jitter-ms", "10")),
+                Double.parseDouble(options.getOrDefault("error-rate", "0")), mapper)) {
+            stubs.start();
+            System.out.printf("Stub services on ports 8081-8084: latency %d +- %d ms, error rate %.3f, scale %dx%n",
+                    stubs.latencyMs, stubs.jitterMs, stubs.errorRate, scale);
+            if (options.containsKey("stubs-only")) {
+                Thread.currentThread().join();
+            }
+
+            Process main = null;
+            String mainUrl = options.get("main-url");
+            try {
+                if (mainUrl == null) {
+                    mainUrl = "http://localhost:8080";
+                    main = startMainSystem(options.getOrDefault("mongo-uri", NO_MONGO));
+                }
+                awaitReady(mainUrl, main);
+                new LoadHarness(options, mainUrl, stubs.flightNumbers(), saveTemplate(fleet, mapper)).run(stubs);
+            } finally {
+                if (main != null) {
+                    main.destroy();
+                    if (!main.waitFor(10, TimeUnit.SECONDS)) main.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    private final String mainUrl;
+    private final List<String> flightNumbers;
+    private final String saveTemplate;
+    private final int rps;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final boolean forceNew;
+    private final int maxInFlight;
+    private final String[] endpoints;
+    private final int[] cumulativeWeights;
+    private final HttpClient client;
+
+    LoadHarness(Map<String, String> options, String mainUrl, List<String> flightNumbers, String saveTemplate) {
+        this.mainUrl = mainUrl;
+        this.flightNumbers = flightNumbers;
+        this.saveTemplate = saveTemplate;
+        this.rps = Integer.parseInt(options.getOrDefault("rps", "20"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        this.forceNew = Boolean.parseBoolean(options.getOrDefault("force-new", "false"));
+        this.maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", "2000"));
+
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String part : options.getOrDefault("mix", "generate=80,flights=15,save=5").split(",")) {
+            String[] kv = part.split("=");
+            if (!List.of("generate", "flights", "save").contains(kv[0])) throw new IllegalArgumentException("Unknown endpoint in --mix: " + kv[0]);
+            mix.put(kv[0], Integer.parseInt(kv[1]));
+        }
+        this.endpoints = mix.keySet().toArray(new String[0]);
+        this.cumulativeWeights = new int[endpoints.length];
+        int total = 0;
+        for (int i = 0; i < endpoints.length; i++) cumulativeWeights[i] = total += mix.get(endpoints[i]);
+
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    void run(StubServices stubs) throws InterruptedException {
+        Map<String, Recorder> recorders = new LinkedHashMap<>();
+        for (String endpoint : endpoints) recorders.put(endpoint, new Recorder());
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicLong dropped = new AtomicLong();
+        Random random = new Random(331);
+        long interval = TimeUnit.SECONDS.toNanos(1) / rps;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long stubRequestsAtStart = -1, stubErrorsAtStart = 0;
+
+        System.out.printf("Driving %s at %d req/s for %ds after %ds warmup, mix %s%n", mainUrl, rps, durationSeconds, warmupSeconds,
+                String.join(",", endpoints));
+        try (ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0; ; i++) {
+                long scheduled = start + i * interval;
+                if (scheduled >= end) break;
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+                boolean measured = scheduled >= measureFrom;
+                if (measured && stubRequestsAtStart < 0) { stubRequestsAtStart = stubs.requests(); stubErrorsAtStart = stubs.injectedErrors(); }
+
+                String endpoint = pick(random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]));
+                String flight = flightNumbers.get(random.nextInt(flightNumbers.size()));
+                Recorder recorder = measured ? recorders.get(endpoint) : null;
+                if (!inFlight.tryAcquire()) {
+                    if (recorder != null) dropped.incrementAndGet();
+                    continue;
+                }
+                senders.execute(() -> {
+                    try {
+                        int status = send(endpoint, flight);
+                        if (recorder != null) recorder.record(System.nanoTime() - scheduled, status);
+                    } catch (Exception e) {
+                        if (recorder != null) recorder.record(System.nanoTime() - scheduled, -1);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        report(recorders, dropped.get(), stubs.requests() - Math.max(0, stubRequestsAtStart), stubs.injectedErrors() - stubErrorsAtStart);
+    }
+
+    private String pick(int ticket) {
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (ticket < cumulativeWeights[i]) return endpoints[i];
+        }
+        return endpoints[endpoints.length - 1];
+    }
+
+    private int send(String endpoint, String flight) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().timeout(Duration.ofSeconds(30)).header("Authorization", AUTH);
+        switch (endpoint) {
+            case "generate" -> request.uri(URI.create(mainUrl + "/api/roster/generate/" + flight + "?forceNew=" + forceNew)).GET();
+            case "flights" -> request.uri(URI.create(mainUrl + "/api/roster/flights")).GET();
+            default -> request.uri(URI.create(mainUrl + "/api/roster/save?dbType=sql"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(saveTemplate.replace(TEMPLATE_FLIGHT, flight)));
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private void report(Map<String, Recorder> recorders, long dropped, long stubRequests, long stubErrors) {
+        System.out.println();
+        System.out.printf("%-10s %9s %8s %10s %10s %10s %10s %10s%n", "endpoint", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        long total = 0, errors = 0;
+        for (Map.Entry<String, Recorder> e : recorders.entrySet()) {
+            long[] latencies = e.getValue().sorted();
+            total += latencies.length;
+            errors += e.getValue().errors();
+            System.out.printf("%-10s %9d %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", e.getKey(), latencies.length, e.getValue().errors(),
+                    latencies.length / (double) durationSeconds, millis(latencies, 0.50), millis(latencies, 0.95), millis(latencies, 0.99),
+                    millis(latencies, 1.0));
+        }
+        System.out.printf("%nTotal %d requests (%d errors, %d dropped at --max-in-flight), %.1f req/s against %d req/s offered%n",
+                total, errors, dropped, total / (double) durationSeconds, rps);
+        System.out.printf("Stub services answered %d calls, %d injected errors%n", stubRequests, stubErrors);
+        for (Map.Entry<String, Recorder> e : recorders.entrySet()) {
+            if (!e.getValue().statuses().isEmpty()) System.out.printf("Status codes %s: %s%n", e.getKey(), e.getValue().statuses());
+        }
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000.0;
+    }
+
+    // Latencies (ns) and status codes of one endpoint; status -1 is a client-side failure or timeout
+    static final class Recorder {
+        private long[] latencies = new long[1024];
+        private int size;
+        private long errors;
+        private final Map<Integer, Long> statuses = new TreeMap<>();
+
+        synchronized void record(long latencyNanos, int status) {
+            if (size == latencies.length) latencies = Arrays.copyOf(latencies, size * 2);
+            latencies[size++] = latencyNanos;
+            if (status < 200 || status >= 300) errors++;
+            statuses.merge(status, 1L, Long::sum);
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(latencies, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+
+        synchronized long errors() { return errors; }
+
+        synchronized Map<Integer, Long> statuses() { return new TreeMap<>(statuses); }
+    }
+
+    // A roster as the dashboard posts it, with a placeholder for the flight number
+    private static String saveTemplate(SyntheticFleet fleet, ObjectMapper mapper) throws IOException {
+        Map<String, Object> roster = new LinkedHashMap<>();
+        roster.put("flightId", TEMPLATE_FLIGHT);
+        Map<String, Object> flightInfo = fleet.flight(0);
+        flightInfo.put("flightNumber", TEMPLATE_FLIGHT);
+        roster.put("flightInfo", flightInfo);
+        roster.put("pilots", Arrays.asList(fleet.pilots()).subList(0, 2));
+        roster.put("cabinCrew", Arrays.asList(fleet.crew()).subList(0, 6));
+        roster.put("passengers", fleet.passengers());
+        return mapper.writeValueAsString(roster);
+    }
+
+    // Same classpath, its own JVM: the main system reads the service hosts from the environment
+    private static Process startMainSystem(String mongoUri) throws IOException {
+        Path db = Path.of("target", "loadtest-roster.sqlite");
+        Files.deleteIfExists(db);
+        File log = Path.of("target", "loadtest-main.log").toFile();
+        ProcessBuilder builder = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                MainSystemApi.class.getName(),
+                "--spring.datasource.url=jdbc:sqlite:" + db,
+                "--spring.data.mongodb.uri=" + mongoUri)
+                .redirectErrorStream(true)
+                .redirectOutput(log);
+        for (String host : List.of("FLIGHT_HOST", "PILOT_HOST", "CREW_HOST", "PASSENGER_HOST")) builder.environment().put(host, "localhost");
+        System.out.println("Starting the main system, log in " + log);
+        return builder.start();
+    }
+
+    private static void awaitReady(String mainUrl, Process main) throws InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest probe = HttpRequest.newBuilder(URI.create(mainUrl + "/api/roster/flights")).header("Authorization", AUTH).build();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+        while (System.nanoTime() < deadline) {
+            if (main != null && !main.isAlive()) throw new IllegalStateException("Main system exited with " + main.exitValue() + ", see target/loadtest-main.log");
+            try {
+                if (client.send(probe, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) return;
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Main system at " + mainUrl + " did not become ready");
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            String name = args[i].substring(2);
+            boolean flag = i + 1 >= args.length || args[i + 1].startsWith("--");
+            options.put(name, flag ? "true" : args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,261 @@
+package com.cmpe331.mainsystem;
+
+import com.cmpe331.common.SeatingPlan;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// CPU-bound parts of RosterController on synthetic fleets of 1x to 1000x the seed data. Downstream services
+// and repositories are replaced by in-memory stubs, so only the main system's own work is measured.
+// Logging runs through the application's logback.xml (async JSON appender) with the controller at DEBUG as
+// in application.properties, so sampled request lines and their enqueue cost are part of every number.
+//
+//   mvn -Pperf test-compile exec:exec
+//   mvn -Pperf test-compile exec:exec -Dperf.args="RosterPipeline.assignSeats -p scale=1,10 -rf json -rff target/jmh-result.json"
+//
+// Keep target/jmh-result.json of each release to compare against.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RosterPipelineBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int scale;
+
+    private ObjectMapper mapper;
+    private RosterController controller;
+    private PrintStream stdout;
+
+    private PilotDto[] pilots;
+    private CrewDto[] crew;
+    private String vehicleModel;
+    private int distance;
+    private String seatingPlanConfig;
+    private Map<String, Object> seatVehicle;
+    private List<PassengerDto> passengers;
+    private String[] rawFlightIds;
+    private Map<String, Object> roster;
+    private String rosterJson;
+    private Logger requestLog;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticFleet fleet = new SyntheticFleet(scale);
+        // same configuration Boot applies to the application's mapper
+        mapper = Jackson2ObjectMapperBuilder.json().modules(new BlackbirdModule()).build();
+
+        pilots = fleet.pilots();
+        crew = fleet.crew();
+        vehicleModel = SyntheticFleet.MODELS[2];
+        distance = 9000;
+        seatingPlanConfig = fleet.seatingPlanConfig();
+        seatVehicle = fleet.vehicle(vehicleModel, seatingPlanConfig);
+        passengers = fleet.passengers();
+        rawFlightIds = fleet.rawFlightIds();
+
+        StubRestTemplate rest = new StubRestTemplate();
+        rest.responses.put("/api/pilots", pilots);
+        rest.responses.put("/api/cabin-crew", crew);
+        rest.responses.put("/api/flights", fleet.flights());
+        controller = new RosterController(rest, mapper,
+                repository(RosterSqlRepository.class, List.of()),
+                repository(RosterMongoRepository.class, List.of()),
+                repository(RosterSummaryRepository.class, fleet.summaries()),
+                repository(RosterOutboxRepository.class, List.of()),
+                repository(RosterVersionRepository.class, List.of()),
+                new NoTransactionManager(),
+                new SimpleMeterRegistry());
+
+        Map<String, Object> generated = new LinkedHashMap<>();
+        generated.put("flightId", "TK1001");
+        generated.put("flightInfo", fleet.flight(0));
+        generated.put("pilots", controller.selectPilots(vehicleModel, distance));
+        generated.put("cabinCrew", controller.selectCrew(vehicleModel));
+        generated.put("passengers", controller.assignMissingSeatsSmartly(passengers, seatVehicle));
+        generated.put("menu", List.of("International Multi-Course"));
+        // saved rosters arrive as plain JSON objects, like a POSTed body
+        roster = mapper.convertValue(generated, RosterDtos.JSON_OBJECT);
+        rosterJson = mapper.writeValueAsString(roster);
+
+        requestLog = LoggerFactory.getLogger(RosterController.class);
+        ((ch.qos.logback.classic.Logger) requestLog).setLevel(ch.qos.logback.classic.Level.DEBUG);
+
+        // the async appender's worker writes the JSON lines to stdout
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+        controller.shutdownFanOut();
+    }
+
+    // Snapshot lookup plus the range scan done for every generated roster
+    @Benchmark
+    public List<PilotDto> selectPilots() {
+        return controller.selectPilots(vehicleModel, distance);
+    }
+
+    @Benchmark
+    public List<CrewDto> selectCrew() {
+        return controller.selectCrew(vehicleModel);
+    }
+
+    // Building the vehicle/group index of a freshly loaded pilot list (each cache refresh)
+    @Benchmark
+    public ReferenceDataCache.Snapshot<PilotDto> indexPilots() {
+        return new ReferenceDataCache<PilotDto>("pilots", () -> pilots, p -> Collections.singletonList(p.allowedVehicleType()),
+                PilotDto::seniorityLevel, Runnable::run, 300, Integer.MAX_VALUE).get();
+    }
+
+    @Benchmark
+    public List<PassengerDto> assignSeats() {
+        return controller.assignMissingSeatsSmartly(passengers, seatVehicle);
+    }
+
+    // Parsing and compiling a seating plan the layout cache has not seen yet
+    @Benchmark
+    public SeatAllocator.Layout compileSeatingPlan() {
+        return SeatAllocator.compile(SeatingPlan.parse(seatingPlanConfig));
+    }
+
+    @Benchmark
+    public void normalizeIds(Blackhole bh) {
+        for (String id : rawFlightIds) bh.consume(controller.normalizeId(id));
+    }
+
+    @Benchmark
+    public String writeRoster() throws IOException {
+        return mapper.writeValueAsString(roster);
+    }
+
+    @Benchmark
+    public Map<String, Object> readRoster() throws IOException {
+        return mapper.readValue(rosterJson, RosterDtos.JSON_OBJECT);
+    }
+
+    // Stored form of a roster in each RosterCodec format, per scale. Besides the time per operation, ops/ms and
+    // the encodedBytes column (the blob size) show what a format costs and saves:
+    //   mvn -Pperf test-compile exec:exec -Dperf.args="RosterPipelineBenchmark.*codeRoster -p scale=1,100"
+    @State(Scope.Benchmark)
+    public static class StoredRoster {
+        @Param({"json", "smile", "smile-lz4"})
+        public String codecName;
+
+        RosterCodec codec;
+        Map<String, Object> roster;
+        byte[] blob;
+
+        @Setup(Level.Trial)
+        public void setUp(RosterPipelineBenchmark pipeline) throws IOException {
+            codec = new RosterCodec(pipeline.mapper, codecName);
+            roster = pipeline.roster;
+            blob = codec.encode(roster);
+        }
+    }
+
+    // JMH zeroes the counter before each iteration and reports what is left in it, so the benchmarks assign the
+    // size (a plain store) instead of adding to it
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+        public long encodedBytes;
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] encodeRoster(StoredRoster stored, EncodedSize size) throws IOException {
+        byte[] blob = stored.codec.encode(stored.roster);
+        size.encodedBytes = blob.length;
+        return blob;
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Map<String, Object> decodeRoster(StoredRoster stored, EncodedSize size) throws IOException {
+        size.encodedBytes = stored.blob.length;
+        return stored.codec.decode(stored.blob);
+    }
+
+    // Validation, id normalization, serialization and the summary row; the repositories are no-ops
+    @Benchmark
+    public Object saveRoster() {
+        return controller.saveRoster(roster, "sql");
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> getFlights() {
+        return controller.getFlights();
+    }
+
+    // Caller-side cost of one traced request line: event creation and the hand-off to the async appender
+    @Benchmark
+    public void logRequestLine() {
+        requestLog.atDebug().addKeyValue("flightId", "TK1001").addKeyValue("forceNew", false).log("Processing roster");
+    }
+
+    // Answers GETs with canned payloads chosen by URL suffix
+    static final class StubRestTemplate extends RestTemplate {
+        final Map<String, Object> responses = new HashMap<>();
+
+        @Override
+        public <T> T getForObject(String url, Class<T> responseType, Object... uriVariables) {
+            return respond(url, responseType);
+        }
+
+        @Override
+        public <T> T getForObject(String url, Class<T> responseType, Map<String, ?> uriVariables) {
+            return respond(url, responseType);
+        }
+
+        private <T> T respond(String url, Class<T> responseType) {
+            for (Map.Entry<String, Object> e : responses.entrySet()) {
+                if (url.endsWith(e.getKey())) return responseType.cast(e.getValue());
+            }
+            return null;
+        }
+    }
+
+    // Transactions around stub repositories have nothing to commit or roll back
+    static final class NoTransactionManager extends AbstractPlatformTransactionManager {
+        @Override protected Object doGetTransaction() { return new Object(); }
+        @Override protected void doBegin(Object transaction, TransactionDefinition definition) {}
+        @Override protected void doCommit(DefaultTransactionStatus status) {}
+        @Override protected void doRollback(DefaultTransactionStatus status) {}
+    }
+
+    // Repository that saves nothing, finds nothing and lists the given rows for findAll
+    @SuppressWarnings("unchecked")
+    static <R> R repository(Class<R> type, List<?> rows) {
+        return (R) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> switch (method.getName()) {
+            case "save" -> args[0];
+            case "findAll" -> rows;
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> type.getSimpleName();
+            default -> method.getReturnType() == List.class ? List.of() : null;
+        });
+    }
+}
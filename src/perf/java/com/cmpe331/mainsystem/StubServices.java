@@ -0,0 +1,173 @@
+package com.cmpe331.mainsystem;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stand-ins for the flight (8081), pilot (8082), cabin crew (8083) and passenger (8084) services, serving
+// SyntheticFleet data on the paths RosterController calls. Every answer waits latency +- jitter first and
+// fails with a 503 at the configured error rate, so downstream slowdowns can be reproduced on one machine.
+class StubServices implements AutoCloseable {
+
+    static final int[] PORTS = {8081, 8082, 8083, 8084};
+
+    final int latencyMs;
+    final int jitterMs;
+    final double errorRate;
+    final SyntheticFleet fleet;
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    // Payloads are serialized once; the passenger list is shared by every flight
+    private final Map<String, byte[]> flightsByNumber = new HashMap<>();
+    private final byte[] flights;
+    private final byte[] pilots;
+    private final byte[] crew;
+    private final byte[] passengers;
+    private final PilotDto[] pilotList;
+    private final CrewDto[] crewList;
+    private final ObjectMapper mapper;
+
+    StubServices(SyntheticFleet fleet, int latencyMs, int jitterMs, double errorRate, ObjectMapper mapper) throws IOException {
+        this.fleet = fleet;
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.errorRate = errorRate;
+        this.mapper = mapper;
+        Map[] flightList = fleet.flights();
+        for (Map f : flightList) flightsByNumber.put((String) f.get("flightNumber"), mapper.writeValueAsBytes(f));
+        this.flights = mapper.writeValueAsBytes(flightList);
+        this.pilotList = fleet.pilots();
+        this.crewList = fleet.crew();
+        this.pilots = mapper.writeValueAsBytes(pilotList);
+        this.crew = mapper.writeValueAsBytes(crewList);
+        this.passengers = mapper.writeValueAsBytes(fleet.passengers());
+    }
+
+    List<String> flightNumbers() { return new ArrayList<>(new TreeSet<>(flightsByNumber.keySet())); }
+
+    void start() throws IOException {
+        start(PORTS[0], "/api/flights", this::flightService);
+        start(PORTS[1], "/api/pilots", this::pilotService);
+        start(PORTS[2], "/api/cabin-crew", this::crewService);
+        start(PORTS[3], "/api/passengers", this::passengerService);
+    }
+
+    long requests() { return requests.get(); }
+
+    long injectedErrors() { return injectedErrors.get(); }
+
+    @Override
+    public void close() {
+        for (HttpServer server : servers) server.stop(0);
+        servers.clear();
+    }
+
+    private interface Route {
+        byte[] answer(String path, Map<String, String> query) throws IOException;
+    }
+
+    private void start(int port, String prefix, Route route) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext(prefix, exchange -> handle(exchange, route));
+        server.start();
+        servers.add(server);
+    }
+
+    private void handle(HttpExchange exchange, Route route) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = latencyMs + (jitterMs > 0 ? random.nextLong(-jitterMs, jitterMs + 1) : 0);
+            if (delay > 0) Thread.sleep(delay);
+            if (errorRate > 0 && random.nextDouble() < errorRate) {
+                injectedErrors.incrementAndGet();
+                send(exchange, 503, "{\"error\":\"injected\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            URI uri = exchange.getRequestURI();
+            byte[] body = route.answer(uri.getPath(), query(uri));
+            if (body == null) send(exchange, 404, new byte[0]);
+            else send(exchange, 200, body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) { out.write(body); }
+        }
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> params = new HashMap<>();
+        String raw = uri.getQuery();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) params.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    // /api/flights, /api/flights/{id}, /api/flights/{id}/shared-info
+    private byte[] flightService(String path, Map<String, String> query) {
+        String[] parts = path.split("/");
+        if (parts.length == 3) return flights;
+        String flight = MainSystemApi.normalizeFlightId(parts[3]);
+        if (parts.length == 4) return flightsByNumber.get(flight);
+        return null; // no shared flights
+    }
+
+    // /api/pilots, /api/pilots/eligible?vehicle=&minRangeKm=&seniority=&limit=
+    private byte[] pilotService(String path, Map<String, String> query) throws IOException {
+        if (!path.endsWith("/eligible")) return pilots;
+        String vehicle = query.getOrDefault("vehicle", "");
+        int minRange = Integer.parseInt(query.getOrDefault("minRangeKm", "0"));
+        int limit = Integer.parseInt(query.getOrDefault("limit", "1"));
+        List<PilotDto> eligible = new ArrayList<>();
+        for (PilotDto p : pilotList) {
+            if (eligible.size() >= limit) break;
+            if (vehicle.equalsIgnoreCase(p.allowedVehicleType()) && p.allowedRangeKm() >= minRange
+                    && query.getOrDefault("seniority", "").equalsIgnoreCase(p.seniorityLevel())) eligible.add(p);
+        }
+        return mapper.writeValueAsBytes(eligible);
+    }
+
+    // /api/cabin-crew, /api/cabin-crew/eligible?vehicle=&chiefs=&chefs=&regulars=
+    private byte[] crewService(String path, Map<String, String> query) throws IOException {
+        if (!path.endsWith("/eligible")) return crew;
+        String vehicle = query.getOrDefault("vehicle", "");
+        Map<String, List<CrewDto>> groups = new LinkedHashMap<>();
+        Map<String, Integer> limits = Map.of("CHIEF", Integer.parseInt(query.getOrDefault("chiefs", "1")),
+                "CHEF", Integer.parseInt(query.getOrDefault("chefs", "1")), "REGULAR", Integer.parseInt(query.getOrDefault("regulars", "4")));
+        for (String type : limits.keySet()) groups.put(type, new ArrayList<>());
+        for (CrewDto c : crewList) {
+            List<CrewDto> group = groups.get(c.type());
+            if (group != null && group.size() < limits.get(c.type()) && c.allowedVehicles().stream().anyMatch(vehicle::equalsIgnoreCase)) group.add(c);
+        }
+        return mapper.writeValueAsBytes(groups);
+    }
+
+    // /api/passengers/flight/{id}
+    private byte[] passengerService(String path, Map<String, String> query) {
+        return path.startsWith("/api/passengers/flight/") ? passengers : null;
+    }
+}
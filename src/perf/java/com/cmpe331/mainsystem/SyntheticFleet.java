@@ -0,0 +1,124 @@
+package com.cmpe331.mainsystem;
+
+import java.util.*;
+
+// Deterministic data shaped like the services' seed data (3 flights, 27 pilots, 74 cabin crew, 335 passengers),
+// multiplied by a scale factor. Cabins of the generated flight grow with the passenger count so seat
+// assignment works on a comparable load factor at every scale.
+class SyntheticFleet {
+
+    static final int SEED_FLIGHTS = 3;
+    static final int SEED_PILOTS = 27;
+    static final int SEED_CREW = 74;
+    static final int SEED_PASSENGERS = 335;
+
+    static final String[] MODELS = {"Embraer E195", "Boeing 737-800", "Boeing 787 Dreamliner"};
+    private static final String[] SENIORITY = {"SENIOR", "JUNIOR", "TRAINEE"};
+    private static final String[] AIRPORTS = {"IST", "LHR", "JFK", "CDG", "FRA", "AMS", "DXB", "NRT"};
+    private static final String ECONOMY_LETTERS = "ABCDEFGHJK";
+
+    final int scale;
+    private final Random random = new Random(331);
+
+    SyntheticFleet(int scale) { this.scale = scale; }
+
+    PilotDto[] pilots() {
+        PilotDto[] pilots = new PilotDto[SEED_PILOTS * scale];
+        for (int i = 0; i < pilots.length; i++) {
+            pilots[i] = new PilotDto((long) i + 1, "Pilot " + i, 28 + random.nextInt(35), i % 2 == 0 ? "Male" : "Female", "Turkey",
+                    1000 + random.nextInt(17) * 1000, MODELS[i % MODELS.length], SENIORITY[(i / MODELS.length) % SENIORITY.length],
+                    List.of("English", "Turkish"));
+        }
+        return pilots;
+    }
+
+    CrewDto[] crew() {
+        CrewDto[] crew = new CrewDto[SEED_CREW * scale];
+        for (int i = 0; i < crew.length; i++) {
+            String type = i % 10 == 0 ? "CHIEF" : i % 10 == 1 ? "CHEF" : "REGULAR";
+            List<String> vehicles = List.of(MODELS[i % MODELS.length], MODELS[(i + 1) % MODELS.length]);
+            crew[i] = new CrewDto((long) i + 1, "Crew " + i, 22 + random.nextInt(30), i % 2 == 0 ? "Female" : "Male", "Turkey", type,
+                    "SENIOR", List.of("English"), vehicles, "CHEF".equals(type) ? List.of("Recipe " + i) : List.of());
+        }
+        return crew;
+    }
+
+    // Wide-body plan with business and economy rows scaled so that SEED_PASSENGERS * scale fit at ~88%
+    String seatingPlanConfig() {
+        return "{\"sections\": [{\"className\": \"BUSINESS\", \"rows\": " + (5 * scale) + ", \"layout\": [2, 2, 2], \"letters\": \"ACDGHK\"},"
+                + "{\"className\": \"ECONOMY\", \"rows\": " + (35 * scale) + ", \"layout\": [3, 4, 3], \"letters\": \"" + ECONOMY_LETTERS + "\"}]}";
+    }
+
+    Map<String, Object> vehicle(String model, String config) {
+        Map<String, Object> vehicle = new LinkedHashMap<>();
+        vehicle.put("id", 1);
+        vehicle.put("modelName", model);
+        vehicle.put("totalSeats", 380 * scale);
+        vehicle.put("seatingPlanConfig", config);
+        vehicle.put("standardMenu", "International Multi-Course");
+        return vehicle;
+    }
+
+    Map<String, Object> flight(int index) {
+        Map<String, Object> flight = new LinkedHashMap<>();
+        flight.put("flightNumber", "TK" + (1001 + index));
+        flight.put("dateTime", "2025-06-01T10:00:00");
+        flight.put("distanceKm", 1500 + (index % 12) * 1000);
+        flight.put("source", Map.of("code", AIRPORTS[index % AIRPORTS.length], "name", "Airport"));
+        flight.put("destination", Map.of("code", AIRPORTS[(index + 1) % AIRPORTS.length], "name", "Airport"));
+        flight.put("vehicleType", vehicle(MODELS[index % MODELS.length], seatingPlanConfig()));
+        return flight;
+    }
+
+    Map[] flights() {
+        Map[] flights = new Map[SEED_FLIGHTS * scale];
+        for (int i = 0; i < flights.length; i++) flights[i] = flight(i);
+        return flights;
+    }
+
+    // Saved flights: every other one is also served by the flight service, the rest are saved-only
+    List<RosterSummary> summaries() {
+        List<RosterSummary> summaries = new ArrayList<>();
+        Date savedAt = new Date(0);
+        for (int i = 0; i < SEED_FLIGHTS * scale; i++) {
+            int index = i % 2 == 0 ? i : SEED_FLIGHTS * scale + i;
+            summaries.add(RosterSummary.from("TK" + (1001 + index), flight(index), savedAt, "sql"));
+        }
+        return summaries;
+    }
+
+    // One flight's passengers: 10% infants on a parent's lap, 10% business, a third already seated
+    // and every fifth travelling with the next one
+    List<PassengerDto> passengers() {
+        int count = SEED_PASSENGERS * scale;
+        int economyRows = 35 * scale;
+        List<PassengerDto> passengers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = i + 1;
+            boolean infant = i % 10 == 9;
+            String seatType = i % 10 == 0 ? "BUSINESS" : "ECONOMY";
+            String seat = null;
+            if (!infant && i % 3 == 0 && "ECONOMY".equals(seatType)) {
+                seat = (5 * scale + 1 + random.nextInt(economyRows)) + String.valueOf(ECONOMY_LETTERS.charAt(random.nextInt(ECONOMY_LETTERS.length())));
+            }
+            List<Long> affiliates = i % 5 == 0 && i + 1 < count ? List.of(id + 1) : List.of();
+            passengers.add(new PassengerDto(id, "Passenger " + i, infant ? 1 : 18 + random.nextInt(60), "Female", "Turkey", "TK1001",
+                    seatType, seat, infant ? id - 1 : null, affiliates, null));
+        }
+        return passengers;
+    }
+
+    // Raw ids the way users and older rows spell them
+    String[] rawFlightIds() {
+        String[] ids = new String[SEED_FLIGHTS * scale];
+        for (int i = 0; i < ids.length; i++) {
+            String number = String.valueOf(1001 + i);
+            ids[i] = switch (i % 3) {
+                case 0 -> "TK" + number;
+                case 1 -> "tk " + number;
+                default -> " TK " + number + " ";
+            };
+        }
+        return ids;
+    }
+}
@@ -1,5 +1,7 @@
 package com.cmpe331.crew;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -7,8 +9,10 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.CommandLineRunner;
 
+import java.lang.reflect.Field;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -37,6 +41,36 @@ class CabinCrewApiTest {
         assertEquals("Crew Test", result.get(0).getName());
     }
 
+    @Test
+    void testGetEligibleCrewGroupedByType() throws Exception {
+        CabinCrewMember chief = crewWithId(1L, "Chief", "CHIEF");
+        CabinCrewMember regular = crewWithId(7L, "Regular", "REGULAR");
+        when(repository.findEligibleIds("Boeing 737-800", 1, 0, 100)).thenReturn(List.of(1, 7L));
+        when(repository.findAllById(List.of(1L, 7L))).thenReturn(List.of(regular, chief));
+
+        Map<String, List<CabinCrewMember>> result = controller.getEligible("Boeing 737-800", 1, -3, 500);
+        assertEquals(List.of(chief), result.get("CHIEF"));
+        assertTrue(result.get("CHEF").isEmpty());
+        assertEquals(List.of(regular), result.get("REGULAR"));
+        verify(repository, never()).findAll();
+    }
+
+    @Test
+    void testGetEligibleCrewNoMatch() {
+        when(repository.findEligibleIds("Unknown", 1, 1, 4)).thenReturn(Collections.emptyList());
+        Map<String, List<CabinCrewMember>> result = controller.getEligible("Unknown", 1, 1, 4);
+        assertEquals(Set.of("CHIEF", "CHEF", "REGULAR"), result.keySet());
+        verify(repository, never()).findAllById(any());
+    }
+
+    private CabinCrewMember crewWithId(Long id, String name, String type) throws Exception {
+        CabinCrewMember c = new CabinCrewMember(name, 30, "F", "TR", type, "SENIOR");
+        Field idField = CabinCrewMember.class.getDeclaredField("id");
+        idField.setAccessible(true);
+        idField.set(c, id);
+        return c;
+    }
+
     @Test
     void testCrewEntityFullCoverage() {
         CabinCrewMember c = new CabinCrewMember(); 
@@ -66,6 +100,32 @@ class CabinCrewApiTest {
         verify(repository, atLeastOnce()).save(any(CabinCrewMember.class));
     }
     
+    @Test
+    void testServingModeGroupsEligibleCrewFromSnapshot() throws Exception {
+        CabinCrewMember chief = crewWithId(1L, "Chief", "CHIEF");
+        CabinCrewMember regular1 = crewWithId(7L, "Regular 1", "REGULAR");
+        CabinCrewMember regular2 = crewWithId(3L, "Regular 2", "REGULAR");
+        CabinCrewMember elsewhere = crewWithId(4L, "Elsewhere", "CHIEF");
+        for (CabinCrewMember c : List.of(chief, regular2)) c.setAllowedVehicles(Set.of("Boeing 737-800"));
+        regular1.setAllowedVehicles(Set.of("Boeing 737-800", "BOEING 737-800"));
+        elsewhere.setAllowedVehicles(Set.of("Embraer E195"));
+        when(repository.findAll()).thenReturn(List.of(regular1, chief, elsewhere, regular2));
+        ObjectMapper mapper = new ObjectMapper();
+        CabinCrewServingController serving = new CabinCrewServingController(repository, mapper, 0);
+
+        JsonNode grouped = mapper.readTree(serving.getEligible("Boeing 737-800", 2, 1, 1));
+        assertEquals(1, grouped.get("CHIEF").size());
+        assertEquals(0, grouped.get("CHEF").size());
+        assertEquals("Regular 2", grouped.get("REGULAR").get(0).get("name").asText());
+        assertEquals("{\"CHIEF\":[],\"CHEF\":[],\"REGULAR\":[]}", new String(serving.getEligible("Unknown", 1, 1, 4)));
+        // the vehicle matches ignoring case, and two spellings on one member do not list them twice
+        JsonNode anyCase = mapper.readTree(serving.getEligible("boeing 737-800", 2, 1, 4));
+        assertEquals(List.of("Regular 2", "Regular 1"), List.of(anyCase.get("REGULAR").get(0).get("name").asText(), anyCase.get("REGULAR").get(1).get("name").asText()));
+        assertEquals(2, anyCase.get("REGULAR").size());
+        assertEquals(4, mapper.readTree(serving.getAll()).size());
+        verify(repository, times(1)).findAll();
+    }
+
     @Test
     void testSecurityConfigBeans() {
         SecurityConfig config = new SecurityConfig();
@@ -1,13 +1,24 @@
 package com.cmpe331.flight;
 
+import com.cmpe331.common.SeatingPlan;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
 import java.util.Collections;
@@ -15,6 +26,7 @@ import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.*;
 
@@ -29,6 +41,10 @@ class FlightInfoApiTest {
     private VehicleTypeRepository vehicleRepo;
     @Mock
     private SharedFlightRepository sharedRepo;
+    @Spy
+    private FlightCache flightCache = new FlightCache(100, 600);
+
+    private final SeatMapCache seatMapCache = new SeatMapCache();
 
     @InjectMocks
     private FlightController controller;
@@ -46,20 +62,129 @@ class FlightInfoApiTest {
     @Test
     void testGetFlightFound() {
         Flight f = new Flight("TK1", LocalDateTime.now(), 100, 500, null, null, null);
-        when(flightRepo.findAll()).thenReturn(Collections.singletonList(f));
+        when(flightRepo.findById("TK1")).thenReturn(Optional.of(f));
         
         ResponseEntity<Flight> response = controller.getFlight("TK1");
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals("TK1", response.getBody().getFlightNumber());
+        verify(flightRepo, never()).findAll();
     }
 
     @Test
     void testGetFlightNotFound() {
-        when(flightRepo.findAll()).thenReturn(Collections.emptyList());
+        when(flightRepo.findById("TK99")).thenReturn(Optional.empty());
         ResponseEntity<Flight> response = controller.getFlight("TK99");
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
     }
+
+    @Test
+    void testGetFlightServedFromCache() {
+        Flight f = new Flight("TK1", LocalDateTime.now(), 100, 500, null, null, null);
+        when(flightRepo.findById("TK1")).thenReturn(Optional.of(f));
+
+        controller.getFlight("TK1");
+        controller.getFlight("TK1");
+        verify(flightRepo, times(1)).findById("TK1");
+        assertEquals(1L, controller.getCacheStats().get("hits"));
+
+        // a change to the flight drops the cached aggregate
+        new FlightDataListener(flightCache, seatMapCache).onChange(f);
+        controller.getFlight("TK1");
+        verify(flightRepo, times(2)).findById("TK1");
+    }
+
+    @Test
+    void testFlightChangeInvalidatesAfterCommit() {
+        Flight f = new Flight("TK1", LocalDateTime.now(), 100, 500, null, null, null);
+        when(flightRepo.findById("TK1")).thenReturn(Optional.of(f));
+        controller.getFlight("TK1");
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            new FlightDataListener(flightCache, seatMapCache).onChange(f);
+            // flushed but not committed: readers still get the committed row from the cache
+            assertEquals(1, controller.getCacheStats().get("entries"));
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            assertEquals(0, controller.getCacheStats().get("entries"));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void testLoadRacingAnInvalidationIsNotCached() {
+        Flight old = new Flight("TK1", LocalDateTime.now(), 100, 500, null, null, null);
+        Flight fresh = new Flight("TK1", LocalDateTime.now(), 120, 500, null, null, null);
+
+        // the change commits while the old row is being loaded
+        assertSame(old, flightCache.get("TK1", id -> { flightCache.invalidate(id); return old; }));
+        assertSame(fresh, flightCache.get("TK1", id -> fresh));
+        assertSame(fresh, flightCache.get("TK1", id -> old));
+    }
+
+    @Test
+    void testMultiGetKeepsOrderAndLoadsOnlyMisses() {
+        Flight f1 = new Flight("TK1", LocalDateTime.now(), 100, 500, null, null, null);
+        Flight f2 = new Flight("TK2", LocalDateTime.now(), 100, 500, null, null, null);
+        when(flightRepo.findById("TK2")).thenReturn(Optional.of(f2));
+        when(flightRepo.findAllById(List.of("TK1", "TK9"))).thenReturn(List.of(f1));
+
+        controller.getFlight("TK2");
+        List<Flight> result = controller.getFlights(List.of("TK1", "TK2", "TK9", "TK1"));
+        assertEquals(List.of(f1, f2, f1), result);
+    }
+
+    @Test
+    void testVehicleChangeClearsWholeCache() {
+        Flight f = new Flight("TK1", LocalDateTime.now(), 100, 500, null, null, null);
+        when(flightRepo.findById("TK1")).thenReturn(Optional.of(f));
+        controller.getFlight("TK1");
+
+        new FlightDataListener(flightCache, seatMapCache).onChange(new VehicleType());
+        assertEquals(0, controller.getCacheStats().get("entries"));
+    }
     
+    @Test
+    void testSeatMapCompiledOnceAndInvalidated() {
+        VehicleType e195 = new VehicleType("Embraer E195", 60, 5, 60,
+                "{\"sections\": [{\"className\": \"BUSINESS\", \"rows\": 2, \"layout\": [1, 2], \"letters\": \"ADF\"},"
+                        + "{\"className\": \"ECONOMY\", \"rows\": 3, \"layout\": [2, 2], \"letters\": \"ACDF\"}]}", "Menu");
+        ReflectionTestUtils.setField(e195, "id", 1);
+        when(vehicleRepo.findById(1)).thenReturn(Optional.of(e195));
+        SeatMapController seatMaps = new SeatMapController(vehicleRepo, seatMapCache);
+
+        SeatMap map = seatMaps.getSeatMap(1).getBody();
+        assertEquals(6 + 12, map.seats().size());
+        assertEquals(List.of("1A", "1D", "1F"), map.seats().subList(0, 3));
+        assertEquals(6, map.indexOf("3A"));
+        assertEquals(-1, map.indexOf("9Z"));
+        assertEquals("ECONOMY", map.classOf(map.indexOf("5F")));
+        SeatingPlan.Section economy = map.sections().get(1);
+        assertEquals(3, economy.firstRow());
+        assertEquals(5, economy.lastRow());
+        assertEquals(List.of(2, 2), economy.layout());
+
+        assertSame(map, seatMaps.getSeatMap(1).getBody());
+        assertEquals(1L, seatMaps.getSeatMapStats().get("compiles"));
+
+        // editing the vehicle type drops its compiled map
+        new FlightDataListener(flightCache, seatMapCache).onChange(e195);
+        assertNotSame(map, seatMaps.getSeatMap(1).getBody());
+        assertEquals(2L, seatMaps.getSeatMapStats().get("compiles"));
+    }
+
+    @Test
+    void testSeatMapMissingOrInvalid() {
+        VehicleType broken = new VehicleType("Broken", 1, 1, 1, "{ not json", "Menu");
+        ReflectionTestUtils.setField(broken, "id", 2);
+        when(vehicleRepo.findById(2)).thenReturn(Optional.of(broken));
+        when(vehicleRepo.findById(3)).thenReturn(Optional.empty());
+        SeatMapController seatMaps = new SeatMapController(vehicleRepo, seatMapCache);
+
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, seatMaps.getSeatMap(2).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, seatMaps.getSeatMap(3).getStatusCode());
+    }
+
     @Test
     void testGetSharedInfoFound() {
         SharedFlightDetails s = new SharedFlightDetails("TK1", "Lufthansa", "LH1", "Conn");
@@ -129,6 +254,35 @@ class FlightInfoApiTest {
         assertEquals("D", sf.getConnectingFlightInfo());
     }
     
+    @Test
+    void testServingModeAnswersFromSnapshot() throws Exception {
+        Flight tk1 = new Flight("TK1", null, 100, 500, null, null, null);
+        Flight tk2 = new Flight("TK2", null, 200, 900, null, null, null);
+        when(flightRepo.findAll()).thenReturn(List.of(tk2, tk1));
+        when(sharedRepo.findAll()).thenReturn(List.of(new SharedFlightDetails("TK1", "Partner", "PA1", null)));
+        ObjectMapper mapper = new ObjectMapper();
+        FlightServingController serving = new FlightServingController(flightRepo, sharedRepo, mapper, 0);
+
+        JsonNode byIds = mapper.readTree(serving.getFlights(List.of("TK2", "XX9", "TK1")));
+        assertEquals(2, byIds.size());
+        assertEquals("TK2", byIds.get(0).get("flightNumber").asText());
+        assertEquals("TK1", mapper.readTree(serving.getAllFlights()).get(0).get("flightNumber").asText());
+        assertEquals(HttpStatus.NOT_FOUND, serving.getFlight("XX9").getStatusCode());
+        assertEquals("Partner", mapper.readTree(serving.getSharedInfo("TK1").getBody()).get("partnerCompanyName").asText());
+        assertEquals(HttpStatus.NOT_FOUND, serving.getSharedInfo("TK2").getStatusCode());
+        verify(flightRepo, times(1)).findAll();
+        verify(flightRepo, never()).findById(any());
+    }
+
+    @Test
+    void testReferenceEntitiesUseSecondLevelCache() throws Exception {
+        assertEquals(CacheConcurrencyStrategy.READ_WRITE, Airport.class.getAnnotation(Cache.class).usage());
+        assertEquals(CacheConcurrencyStrategy.READ_WRITE, VehicleType.class.getAnnotation(Cache.class).usage());
+        for (String field : List.of("source", "destination", "vehicleType")) {
+            assertEquals(FetchMode.SELECT, Flight.class.getDeclaredField(field).getAnnotation(Fetch.class).value(), field);
+        }
+    }
+
     @Test
     void testSecurityConfigBeans() {
         SecurityConfig config = new SecurityConfig();
@@ -1,24 +1,72 @@
 package com.cmpe331.mainsystem;
 
+import com.cmpe331.common.SeatingPlan;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.http.client.MockClientHttpResponse;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.net.UnknownHostException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.StreamSupport;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(MockitoExtension.class)
 public class MainSystemApiTest {
@@ -32,9 +80,24 @@ public class MainSystemApiTest {
     @Mock
     private RosterMongoRepository mongoRepo;
 
+    @Mock
+    private RosterSummaryRepository summaryRepo;
+
+    @Mock
+    private RosterOutboxRepository outboxRepo;
+
+    @Mock
+    private RosterVersionRepository versionRepo;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     @Spy
     private ObjectMapper objectMapper = new ObjectMapper();
 
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private RosterController rosterController;
 
@@ -56,52 +119,134 @@ public class MainSystemApiTest {
         validFlight.put("vehicleType", vehicleType);
     }
 
+    private static PilotDto pilot(long id, String name, String seniority, String vehicle, int rangeKm) {
+        return new PilotDto(id, name, 40, "M", "TR", rangeKm, vehicle, seniority, List.of("EN"));
+    }
+
+    private static CrewDto crew(long id, String name, String type, List<String> vehicles, List<String> recipes) {
+        return new CrewDto(id, name, 30, "F", "TR", type, "SENIOR", List.of("EN"), vehicles, recipes);
+    }
+
+    private static PassengerDto passenger(long id, Integer age, String seatType, String seatNumber, List<Long> affiliates) {
+        return new PassengerDto(id, "P" + id, age, "F", "TR", "TK1001", seatType, seatNumber, null, affiliates, null);
+    }
+
     @Test
     void testGenerateRoster_Success_FromExternalApi() {
-        when(sqlRepo.findByFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
-        when(mongoRepo.findByFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
+        when(sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
+        when(mongoRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
 
         lenient().when(restTemplate.getForObject(contains("flights/"), eq(Map.class))).thenReturn(validFlight);
-        lenient().when(restTemplate.getForObject(contains("pilots"), eq(Map[].class))).thenReturn(new Map[]{});
-        lenient().when(restTemplate.getForObject(contains("cabin-crew"), eq(Map[].class))).thenReturn(new Map[]{});
-        lenient().when(restTemplate.getForObject(contains("passengers"), eq(Map[].class))).thenReturn(new Map[]{});
+        lenient().when(restTemplate.getForObject(contains("pilots"), eq(PilotDto[].class))).thenReturn(new PilotDto[]{});
+        lenient().when(restTemplate.getForObject(contains("cabin-crew"), eq(CrewDto[].class))).thenReturn(new CrewDto[]{});
+        lenient().when(restTemplate.getForObject(contains("passengers"), eq(PassengerDto[].class))).thenReturn(new PassengerDto[]{});
 
         ResponseEntity<?> response = rosterController.generateRoster("TK1001", false);
         assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(1.0, meterRegistry.get("roster.generate").tags("store", "services", "outcome", "generated").counter().count());
+        assertEquals(1, meterRegistry.get("roster.downstream").tags("call", "flight", "outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("roster.downstream").tags("call", "passengers").timer().count());
+        assertEquals(1, meterRegistry.get("roster.seat.assignment").timer().count());
     }
 
     @Test
     void testGenerateRoster_FoundInSql_Directly() {
         RosterSqlEntity entity = new RosterSqlEntity();
         entity.setRosterData("{\"flightId\": \"TK1001\", \"source\": \"SQL\"}");
-        when(sqlRepo.findByFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(Collections.singletonList(entity));
+        when(sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(Collections.singletonList(entity));
 
         ResponseEntity<?> response = rosterController.generateRoster("TK1001", false);
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        verify(mongoRepo, never()).findByFlightIdOrderByGeneratedDateDesc(anyString());
+        verify(mongoRepo, never()).findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString());
+        assertEquals(1.0, meterRegistry.get("roster.generate").tags("store", "sql", "outcome", "hit").counter().count());
+        // reads never write; JSON text from before the codec is left to backfillRosterBlobs
+        verify(sqlRepo, never()).migrateToBlob(any(), any());
     }
 
     @Test
-    void testGenerateRoster_FoundInSql_BackupScan() {
-        when(sqlRepo.findByFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(Collections.emptyList());
-        
+    void testBackfillRosterBlobs_KeepsTheEtagOfTextRosters() throws Exception {
+        RosterSqlEntity legacy = new RosterSqlEntity();
+        legacy.setId(5L);
+        legacy.setRosterData("{\"flightId\": \"TK1001\", \"source\": \"SQL\"}");
+        when(sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(Collections.singletonList(legacy));
+        String etag = rosterController.generateRoster("TK1001", false).getHeaders().getETag();
+
+        when(sqlRepo.findByRosterBlobIsNullAndIdGreaterThanOrderByIdAsc(eq(0L), any())).thenReturn(List.of(legacy));
+        when(sqlRepo.findByRosterBlobIsNullAndIdGreaterThanOrderByIdAsc(eq(5L), any())).thenReturn(Collections.emptyList());
+        new MainSystemApi().backfillRosterBlobs(sqlRepo, mongoRepo, objectMapper).run();
+        ArgumentCaptor<byte[]> blob = ArgumentCaptor.forClass(byte[].class);
+        verify(sqlRepo).migrateToBlob(eq(5L), blob.capture());
+        assertEquals(RosterCodec.SMILE_LZ4, blob.getValue()[0]);
+
+        // the rewritten roster answers the tag handed out before the rewrite with 304
+        legacy.setRosterBlob(blob.getValue());
+        legacy.setRosterData(null);
+        assertEquals(HttpStatus.NOT_MODIFIED, rosterController.generateRoster("TK1001", false, etag).getStatusCode());
+    }
+
+    @Test
+    void testBackfillRosterSummaries_SkipsUnreadableRows() throws Exception {
+        RosterSqlEntity broken = new RosterSqlEntity();
+        broken.setId(1L);
+        broken.setRosterData("{not json");
+        RosterSqlEntity saved = new RosterSqlEntity();
+        saved.setId(2L);
+        saved.setRosterData("{\"flightInfo\": {\"flightNumber\": \"TK1001\"}}");
+        when(sqlRepo.findAll(any(Pageable.class))).thenReturn(new PageImpl<>(List.of(broken, saved)));
+
+        new MainSystemApi().backfillRosterSummaries(sqlRepo, summaryRepo, objectMapper).run();
+
+        ArgumentCaptor<Iterable<RosterSummary>> summaries = ArgumentCaptor.forClass(Iterable.class);
+        verify(summaryRepo).saveAll(summaries.capture());
+        assertEquals(List.of("TK1001"), StreamSupport.stream(summaries.getValue().spliterator(), false).map(RosterSummary::getFlightNumber).toList());
+    }
+
+    @Test
+    void testGenerateRoster_FoundInSql_Blob() throws Exception {
         RosterSqlEntity entity = new RosterSqlEntity();
-        entity.setFlightId("TK1001");
-        entity.setRosterData("{\"flightId\": \"TK1001\", \"data\": \"backup\"}");
-        when(sqlRepo.findAll()).thenReturn(Collections.singletonList(entity));
+        entity.setRosterBlob(new RosterCodec(objectMapper, "smile-lz4").encode(Map.of("flightId", "TK1001", "source", "SQL")));
+        when(sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(Collections.singletonList(entity));
 
         ResponseEntity<?> response = rosterController.generateRoster("TK1001", false);
+        assertEquals(Map.of("flightId", "TK1001", "source", "SQL"), response.getBody());
+        assertEquals(RosterMemo.etagOf(entity.getRosterBlob()), response.getHeaders().getETag());
+        verify(sqlRepo, never()).migrateToBlob(any(), any());
+    }
+
+    @Test
+    void testGenerateRoster_FoundInSql_LegacyId() {
+        // saved as "tk 1001" before ids were normalized; found through the normalized column, no table scan
+        RosterSqlEntity entity = new RosterSqlEntity();
+        entity.setFlightId("tk 1001");
+        entity.setRosterData("{\"flightId\": \"TK1001\", \"data\": \"backup\"}");
+        assertEquals("TK1001", entity.getNormalizedFlightId());
+        when(sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(Collections.singletonList(entity));
+
+        ResponseEntity<?> response = rosterController.generateRoster("tk 1001", false);
         assertEquals(HttpStatus.OK, response.getStatusCode());
+        verify(sqlRepo, never()).findAll();
+    }
+
+    @Test
+    void testBackfillNormalizedFlightIds() throws Exception {
+        RosterSqlEntity legacy = new RosterSqlEntity();
+        ReflectionTestUtils.setField(legacy, "flightId", "TK 1001");
+        when(sqlRepo.findByNormalizedFlightIdIsNull(any())).thenReturn(List.of(legacy)).thenReturn(Collections.emptyList());
+
+        new MainSystemApi().backfillNormalizedFlightIds(sqlRepo, mongoRepo, mock(MongoTemplate.class)).run();
+
+        assertEquals("TK1001", legacy.getNormalizedFlightId());
+        assertEquals("TK 1001", legacy.getFlightId());
+        verify(sqlRepo).saveAll(List.of(legacy));
     }
 
     @Test
     void testGenerateRoster_FoundInMongo() {
-        when(sqlRepo.findByFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
-        when(sqlRepo.findAll()).thenReturn(Collections.emptyList());
+        when(sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
 
         RosterDocument doc = new RosterDocument();
         doc.setRosterData(new HashMap<>());
-        when(mongoRepo.findByFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(Collections.singletonList(doc));
+        when(mongoRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(Collections.singletonList(doc));
 
         ResponseEntity<?> response = rosterController.generateRoster("TK1001", false);
         assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -112,7 +257,7 @@ public class MainSystemApiTest {
         // Since forceNew=true, SQL check is skipped
         
         when(restTemplate.getForObject(contains("flight-info-api"), eq(Map.class)))
-            .thenThrow(new RuntimeException("Service down"));
+            .thenThrow(new ResourceAccessException("I/O error", new UnknownHostException("flight-info-api")));
         
         when(restTemplate.getForObject(contains("localhost"), eq(Map.class)))
             .thenReturn(validFlight);
@@ -127,10 +272,49 @@ public class MainSystemApiTest {
         data.put("flightId", "TK1001");
         data.put("pilots", List.of(Map.of("name", "P1"), Map.of("name", "P2")));
 
-        when(sqlRepo.findByFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(new ArrayList<>());
         ResponseEntity<?> response = rosterController.saveRoster(data, "sql");
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        verify(sqlRepo).save(any(RosterSqlEntity.class));
+        // one upsert statement, no read of the previous roster
+        ArgumentCaptor<byte[]> blob = ArgumentCaptor.forClass(byte[].class);
+        verify(sqlRepo).upsertLatest(eq("TK1001"), eq("TK1001"), any(Date.class), blob.capture());
+        assertEquals(List.of(Map.of("name", "P1"), Map.of("name", "P2")),
+                assertDoesNotThrow(() -> new RosterCodec(objectMapper, "smile-lz4").decode(blob.getValue())).get("pilots"));
+        verify(sqlRepo, never()).findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString());
+        verify(summaryRepo).upsert(argThat((RosterSummary summary) -> "TK1001".equals(summary.getFlightNumber()) && "sql".equals(summary.getStore())));
+        assertEquals(1.0, meterRegistry.get("roster.save").tags("store", "sql", "outcome", "success").counter().count());
+    }
+
+    @Test
+    void testSaveRoster_StoresRosterAndVersionInOneTransaction() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("flightId", "TK1001");
+        data.put("pilots", List.of(Map.of("name", "Şule"), Map.of("name", "P2")));
+        when(versionRepo.save(any(RosterVersion.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        ResponseEntity<?> saved = rosterController.saveRoster(data, "sql");
+        assertEquals("1", saved.getHeaders().getFirst("X-Roster-Version"));
+        InOrder tx = inOrder(transactionManager, versionRepo, sqlRepo, summaryRepo);
+        tx.verify(transactionManager).getTransaction(any());
+        ArgumentCaptor<RosterVersion> version = ArgumentCaptor.forClass(RosterVersion.class);
+        tx.verify(versionRepo).save(version.capture());
+        tx.verify(sqlRepo).upsertLatest(eq("TK1001"), eq("TK1001"), any(Date.class), any(byte[].class));
+        tx.verify(summaryRepo).upsert(any(RosterSummary.class));
+        tx.verify(transactionManager).commit(any());
+        // size in bytes, not characters
+        assertEquals(version.getValue().getData().getBytes(StandardCharsets.UTF_8).length, version.getValue().getBytes());
+        assertTrue(version.getValue().getBytes() > version.getValue().getData().length());
+
+        // Mongo fails after the SQLite writes: all of them roll back, and version 2 is handed out again
+        doThrow(new DataAccessResourceFailureException("mongo down")).when(mongoRepo).upsertAll(anyList());
+        when(versionRepo.findTopByNormalizedFlightIdOrderByVersionDesc("TK1001")).thenReturn(version.getValue());
+        when(versionRepo.findTopByNormalizedFlightIdAndSnapshotTrueAndVersionLessThanEqualOrderByVersionDesc("TK1001", 1)).thenReturn(version.getValue());
+        when(versionRepo.findByNormalizedFlightIdAndVersionBetweenOrderByVersionAsc("TK1001", 1, 1)).thenReturn(List.of(version.getValue()));
+        ResponseEntity<?> failed = rosterController.saveRoster(data, "both");
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, failed.getStatusCode());
+        verify(transactionManager).rollback(any());
+        verify(transactionManager, times(1)).commit(any());
+        reset(mongoRepo);
+        assertEquals("2", rosterController.saveRoster(data, "sql").getHeaders().getFirst("X-Roster-Version"));
     }
 
     @Test
@@ -139,51 +323,245 @@ public class MainSystemApiTest {
         data.put("flightId", "TK1001");
         data.put("pilots", List.of(Map.of("name", "P1"), Map.of("name", "P2")));
 
-        RosterDocument existingDoc = new RosterDocument();
-        existingDoc.setId("existing_id");
-        when(mongoRepo.findByFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(Collections.singletonList(existingDoc));
-
         ResponseEntity<?> response = rosterController.saveRoster(data, "mongo");
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        verify(mongoRepo).save(existingDoc);
+        verify(mongoRepo).upsertAll(argThat(docs -> docs.size() == 1 && "TK1001".equals(docs.get(0).getNormalizedFlightId())));
+        verify(sqlRepo, never()).upsertLatest(any(), any(), any(), any());
+    }
+
+    @Test
+    void testSaveRoster_WriteBehindCoalescesQueuedSaves() {
+        RosterCodec codec = new RosterCodec(objectMapper, "smile");
+        RosterHistory history = new RosterHistory(versionRepo, new TransactionTemplate(transactionManager), objectMapper, 16);
+        RosterStore store = new RosterStore(sqlRepo, mongoRepo, summaryRepo, outboxRepo, history, codec, new RosterMetrics(meterRegistry), true, 100, 0);
+        List<RosterOutboxEntry> queued = new ArrayList<>();
+        when(outboxRepo.saveAll(anyList())).thenAnswer(inv -> { queued.addAll(inv.getArgument(0)); return inv.getArgument(0); });
+
+        Date first = new Date(1000), second = new Date(2000);
+        assertDoesNotThrow(() -> {
+            store.save("TK1001", Map.of("v", 1), null, first, RosterStore.storesOf("both"), "both");
+            store.save("TK1001", Map.of("v", 2), null, second, RosterStore.storesOf("both"), "both");
+        });
+        // acknowledged without touching either store or the history
+        verifyNoInteractions(sqlRepo, mongoRepo, versionRepo);
+        assertEquals(4, queued.size());
+
+        for (int i = 0; i < queued.size(); i++) ReflectionTestUtils.setField(queued.get(i), "id", i + 1L);
+        when(outboxRepo.findByStoreOrderByIdAsc(eq("sql"), any())).thenReturn(List.of(queued.get(0), queued.get(2)));
+        when(outboxRepo.findByStoreOrderByIdAsc(eq("mongo"), any())).thenReturn(List.of(queued.get(1), queued.get(3)));
+        doThrow(new RuntimeException("mongo down")).when(mongoRepo).upsertAll(anyList());
+
+        assertEquals(2, store.drainOnce("sql"));
+        assertEquals(0, store.drainOnce("mongo"));
+        ArgumentCaptor<List<RosterSqlEntity>> written = ArgumentCaptor.forClass(List.class);
+        verify(sqlRepo).upsertAll(written.capture());
+        assertEquals(1, written.getValue().size());
+        assertEquals(second, written.getValue().get(0).getGeneratedDate());
+        assertEquals(Map.of("v", 2), assertDoesNotThrow(() -> codec.decode(written.getValue().get(0).getRosterBlob())));
+        // sql entries are done, the mongo ones stay queued for a retry
+        verify(outboxRepo).deleteAllByIdInBatch(List.of(1L, 3L));
+        verify(outboxRepo, never()).deleteAllByIdInBatch(List.of(2L, 4L));
+        // both saves get a version when the sql writer stores them, the superseded one included, and only there
+        ArgumentCaptor<RosterVersion> versions = ArgumentCaptor.forClass(RosterVersion.class);
+        verify(versionRepo, times(2)).save(versions.capture());
+        assertEquals(List.of(1, 2), versions.getAllValues().stream().map(RosterVersion::getVersion).toList());
+        assertEquals(List.of(first, second), versions.getAllValues().stream().map(RosterVersion::getSavedAt).toList());
+        assertEquals(1.0, meterRegistry.get("roster.write.behind").tags("store", "sql", "outcome", "coalesced").counter().count());
+        assertEquals(1.0, meterRegistry.get("roster.write.behind").tags("store", "mongo", "outcome", "failed").counter().count());
+    }
+
+    @Test
+    void testRosterDelta_RoundTripsStructuralChanges() {
+        ObjectNode from = objectMapper.createObjectNode().put("flightId", "TK1001").put("menu", "Standard");
+        ArrayNode passengers = from.putArray("passengers");
+        for (int i = 0; i < 300; i++) passengers.addObject().put("name", "P" + i).put("seatNumber", (i / 6 + 1) + "A");
+        from.putArray("cabinCrew").add("C1").add("C2").add("C3");
+
+        ObjectNode to = from.deepCopy();
+        ((ObjectNode) to.get("passengers").get(42)).put("seatNumber", "1F");
+        ((ArrayNode) to.get("passengers")).addObject().put("name", "Infant");
+        ((ArrayNode) to.get("cabinCrew")).remove(2);
+        to.remove("menu");
+        to.put("generatedDate", "2026-01-01");
+
+        ArrayNode delta = RosterHistory.diff(from, to);
+        assertEquals(to, RosterHistory.patch(from, delta));
+        assertEquals(5, delta.size());
+        assertTrue(delta.toString().length() * 50 < from.toString().length());
+        // the base is left untouched
+        assertEquals(300, from.get("passengers").size());
+    }
+
+    @Test
+    void testRosterCodec_FormatsRoundTripAndStayReadable() throws Exception {
+        Map<String, Object> roster = new LinkedHashMap<>();
+        roster.put("flightId", "TK1001");
+        List<Map<String, Object>> passengers = new ArrayList<>();
+        for (int i = 0; i < 300; i++) passengers.add(Map.of("name", "Passenger " + i, "seatType", "ECONOMY", "seatNumber", (i / 6 + 1) + "C", "age", 30));
+        roster.put("passengers", passengers);
+        int jsonSize = objectMapper.writeValueAsBytes(roster).length;
+
+        RosterCodec compressed = new RosterCodec(objectMapper, "smile-lz4");
+        for (String name : List.of("json", "smile", "smile-lz4")) {
+            byte[] blob = new RosterCodec(objectMapper, name).encode(roster);
+            assertEquals(RosterCodec.formatOf(name), blob[0]);
+            // the format byte lets any codec read what another one wrote
+            assertEquals(roster, compressed.decode(blob));
+        }
+        assertTrue(compressed.encode(roster).length * 4 < jsonSize);
+        assertEquals(Map.of("v", 1), compressed.decode(RosterCodec.fromJson("{\"v\":1}")));
+        assertEquals(Map.of("v", 1), compressed.decode(null, "{\"v\":1}"));
+
+        assertEquals(RosterCodec.SMILE_LZ4, RosterCodec.formatOf(null));
+        assertEquals(RosterCodec.SMILE_LZ4, RosterCodec.formatOf(" "));
+        assertEquals(RosterCodec.SMILE, RosterCodec.formatOf(" Smile "));
+        IllegalArgumentException unknown = assertThrows(IllegalArgumentException.class, () -> new RosterCodec(objectMapper, "gzip"));
+        assertTrue(unknown.getMessage().contains("json, smile or smile-lz4"));
+    }
+
+    @Test
+    void testRosterHistory_SnapshotsBoundTheDeltaChain() throws Exception {
+        List<RosterVersion> rows = new ArrayList<>();
+        when(versionRepo.save(any(RosterVersion.class))).thenAnswer(inv -> { rows.add(inv.getArgument(0)); return inv.getArgument(0); });
+        RosterHistory history = new RosterHistory(versionRepo, new TransactionTemplate(transactionManager), objectMapper, 3);
+
+        List<Map<String, Object>> saved = new ArrayList<>();
+        for (int v = 1; v <= 5; v++) {
+            Map<String, Object> roster = new HashMap<>();
+            roster.put("flightId", "TK1001");
+            roster.put("pilots", List.of(Map.of("name", "P1"), Map.of("name", "P" + (v + 1))));
+            saved.add(roster);
+            assertEquals(v, history.append("tk 1001", roster, new Date(), () -> {}));
+        }
+        assertEquals(List.of(true, false, false, true, false), rows.stream().map(RosterVersion::isSnapshot).toList());
+
+        // version 3 is rebuilt from snapshot 1 and two deltas
+        when(versionRepo.findTopByNormalizedFlightIdAndSnapshotTrueAndVersionLessThanEqualOrderByVersionDesc("TK1001", 3)).thenReturn(rows.get(0));
+        when(versionRepo.findByNormalizedFlightIdAndVersionBetweenOrderByVersionAsc("TK1001", 1, 3)).thenReturn(rows.subList(0, 3));
+        assertEquals(objectMapper.valueToTree(saved.get(2)), history.version("TK1001", 3));
+        // appends after a restart continue from the newest stored version
+        when(versionRepo.findTopByNormalizedFlightIdOrderByVersionDesc("TK1001")).thenReturn(rows.get(4));
+        when(versionRepo.findTopByNormalizedFlightIdAndSnapshotTrueAndVersionLessThanEqualOrderByVersionDesc("TK1001", 5)).thenReturn(rows.get(3));
+        when(versionRepo.findByNormalizedFlightIdAndVersionBetweenOrderByVersionAsc("TK1001", 4, 5)).thenReturn(rows.subList(3, 5));
+        assertEquals(6, new RosterHistory(versionRepo, new TransactionTemplate(transactionManager), objectMapper, 3).append("TK1001", saved.get(4), new Date(), () -> {}));
+        assertFalse(rows.get(5).isSnapshot());
+        assertEquals("[]", rows.get(5).getData());
     }
 
     @Test
     void testGetFlights_MergeLogic() {
         when(restTemplate.getForObject(anyString(), eq(Map[].class))).thenReturn(new Map[]{validFlight});
         
-        RosterSqlEntity dbEntity = new RosterSqlEntity();
-        dbEntity.setRosterData("{\"flightInfo\": {\"flightNumber\": \"TK9999\"}}");
-        when(sqlRepo.findAll()).thenReturn(Collections.singletonList(dbEntity));
+        RosterSummary saved = RosterSummary.from("TK9999", Map.of("flightNumber", "TK9999", "source", Map.of("code", "IST"), "distanceKm", 800), new Date(), "sql");
+        RosterSummary duplicate = RosterSummary.from("TK1001", Map.of("flightNumber", "TK1001"), new Date(), "mongo");
+        when(summaryRepo.findAll(any(Sort.class))).thenReturn(List.of(duplicate, saved));
 
         List<Map<String, Object>> result = rosterController.getFlights();
-        assertTrue(result.size() >= 1);
+        assertEquals(2, result.size());
+        assertEquals("TK9999", result.get(1).get("flightNumber"));
+        assertEquals("IST", result.get(1).get("source"));
+        assertEquals(800, result.get(1).get("distanceKm"));
+        // roster blobs are not read for the list
+        verify(sqlRepo, never()).findAll();
+    }
+
+    @Test
+    void testGetFlights_Paged() {
+        Map<String, Object> second = new HashMap<>(validFlight);
+        second.put("flightNumber", "TK2020");
+        when(restTemplate.getForObject(anyString(), eq(Map[].class))).thenReturn(new Map[]{validFlight, second});
+        when(summaryRepo.findAll(any(Sort.class)))
+                .thenReturn(List.of(RosterSummary.from("TK9999", null, new Date(), "sql")));
+
+        ResponseEntity<List<Map<String, Object>>> response = rosterController.getFlights(1, 2);
+        assertEquals("3", response.getHeaders().getFirst("X-Total-Count"));
+        assertEquals(1, response.getBody().size());
+        assertEquals("TK9999", response.getBody().get(0).get("flightNumber"));
+
+        assertTrue(rosterController.getFlights(5, 2).getBody().isEmpty());
     }
 
     @Test
     void testSmartSeatAssignment_Complex() {
         lenient().when(restTemplate.getForObject(anyString(), eq(Map.class))).thenReturn(validFlight);
         
-        Map<String, Object> mother = new HashMap<>(); 
-        mother.put("id", 1); mother.put("name", "M"); mother.put("seatType", "ECONOMY"); mother.put("affiliatedPassengerIds", List.of(2));
-        
-        Map<String, Object> child = new HashMap<>(); 
-        child.put("id", 2); child.put("name", "C"); child.put("seatType", "ECONOMY"); child.put("affiliatedPassengerIds", List.of(1));
-        
-        Map<String, Object> busPax = new HashMap<>(); 
-        busPax.put("id", 3); busPax.put("name", "B"); busPax.put("seatType", "BUSINESS");
-        
-        Map<String, Object> infant = new HashMap<>(); 
-        infant.put("id", 4); infant.put("name", "I"); infant.put("age", 1);
+        PassengerDto mother = passenger(1, null, "ECONOMY", null, List.of(2L));
+        PassengerDto child = passenger(2, null, "ECONOMY", null, List.of(1L));
+        PassengerDto busPax = passenger(3, null, "BUSINESS", null, null);
+        PassengerDto infant = passenger(4, 1, null, null, null);
 
-        Map[] passengers = {mother, child, busPax, infant};
-        lenient().when(restTemplate.getForObject(contains("passengers"), eq(Map[].class))).thenReturn(passengers);
+        PassengerDto[] passengers = {mother, child, busPax, infant};
+        lenient().when(restTemplate.getForObject(contains("passengers"), eq(PassengerDto[].class))).thenReturn(passengers);
 
         ResponseEntity<?> response = rosterController.generateRoster("TK1001", true);
         
         Map<String, Object> body = (Map<String, Object>) response.getBody();
-        List<Map> resultPassengers = (List<Map>) body.get("passengers");
+        List<PassengerDto> resultPassengers = (List<PassengerDto>) body.get("passengers");
         assertNotNull(resultPassengers);
+        assertEquals("2A", resultPassengers.get(0).seatNumber());
+        assertEquals("2C", resultPassengers.get(1).seatNumber());
+        assertEquals("1A", resultPassengers.get(2).seatNumber());
+        assertEquals("INFANT (Lap)", resultPassengers.get(3).seatNumber());
+    }
+
+    @Test
+    void testSeatAllocator_OrderGroupsAndStandby() {
+        // rows 1-2 business (1A 1C 2A 2C), rows 3-4 economy (3A 3B 4A 4B)
+        SeatAllocator.Layout layout = SeatAllocator.compile(SeatingPlan.parse("{\"sections\": ["
+                + "{\"className\": \"BUSINESS\", \"rows\": 2, \"letters\": \"AC\"}, {\"className\": \"ECONOMY\", \"rows\": 2, \"letters\": \"AB\"}]}"));
+
+        List<PassengerDto> passengers = List.of(
+                passenger(1, null, null, "3A", null),
+                passenger(2, 1, null, "3B", null),
+                passenger(3, null, "ECONOMY", null, List.of(5L, 2L)),
+                passenger(4, null, "BUSINESS", null, null),
+                passenger(5, null, "BUSINESS", null, null),
+                passenger(6, null, "ECONOMY", null, null),
+                passenger(7, null, "economy", null, null));
+
+        List<PassengerDto> result = new SeatAllocator(layout).assign(passengers);
+
+        assertEquals("3A", result.get(0).seatNumber());
+        assertEquals("INFANT (Lap)", result.get(1).seatNumber());  // an infant's seat is released
+        assertEquals("3B", result.get(2).seatNumber());
+        assertEquals("4A", result.get(4).seatNumber());            // seated with the parent, parent's class
+        assertEquals("1A", result.get(3).seatNumber());
+        assertEquals("4B", result.get(5).seatNumber());
+        assertEquals("STANDBY", result.get(6).seatNumber());
+        assertNull(result.get(6).autoAssigned());
+        assertEquals(true, result.get(5).autoAssigned());
+        assertNull(passengers.get(5).seatNumber());                // input records are left untouched
+    }
+
+    @Test
+    void testSeatLayoutCompiledOncePerPlan() throws Exception {
+        String plan = (String) vehicleType.get("seatingPlanConfig");
+        SeatAllocator.Layout layout = rosterController.seatLayoutFor(plan);
+        assertSame(layout, rosterController.seatLayoutFor(new String(plan)));
+        assertNotSame(layout, rosterController.seatLayoutFor(plan.replace("\"rows\": 2", "\"rows\": 4")));
+    }
+
+    @Test
+    void testSeatAllocator_WideBody() {
+        SeatingPlan plan = SeatingPlan.parse("{\"sections\": ["
+                + "{\"className\": \"BUSINESS\", \"rows\": 8, \"letters\": \"ACDGHK\"}, {\"className\": \"ECONOMY\", \"rows\": 40, \"letters\": \"ABCDEFGHJK\"}]}");
+        SeatAllocator.Layout layout = SeatAllocator.compile(plan);
+        List<PassengerDto> passengers = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            passengers.add(passenger(i, null, i % 10 == 0 ? "BUSINESS" : "ECONOMY", null, i % 2 == 0 ? List.of(i + 1L) : null));
+        }
+
+        Set<String> seats = new HashSet<>();
+        int standby = 0;
+        for (PassengerDto p : new SeatAllocator(layout).assign(passengers)) {
+            String seat = p.seatNumber();
+            if ("STANDBY".equals(seat)) standby++;
+            else assertTrue(seats.add(seat), "seat handed out twice: " + seat);
+        }
+        assertEquals(8 * 6 + 40 * 10, seats.size());
+        assertEquals(5000 - seats.size(), standby);
+        // exactly the seats of the flight service's seat map for this plan
+        assertEquals(new HashSet<>(plan.seats()), seats);
     }
 
     @Test
@@ -220,20 +598,68 @@ public class MainSystemApiTest {
         assertNotNull(api);
     }
 
+    @Test
+    void testPooledRestTemplateAndPoolStats() throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        PoolingHttpClientConnectionManager cm = config.downstreamConnectionManager();
+        try (CloseableHttpClient client = config.downstreamHttpClient(cm)) {
+            ClientHttpRequestFactory factory = config.downstreamRequestFactory(client);
+            assertTrue(factory instanceof HttpComponentsClientHttpRequestFactory);
+
+            RestTemplate template = new MainSystemApi().restTemplate(new RestTemplateBuilder(), factory);
+            assertNotNull(template);
+
+            Map<String, Object> stats = new HttpPoolController(cm).getPoolStats();
+            Map<String, Object> total = (Map<String, Object>) stats.get("total");
+            assertEquals(200, total.get("max"));
+            assertEquals(0, total.get("leased"));
+        }
+    }
+
+    @Test
+    void testDownstreamCall_ReadTimeoutFollowsRosterDeadline() throws Exception {
+        // a service that answers after 3s; the call under a 300ms deadline must give up long before that
+        HttpServer slow = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        slow.createContext("/", exchange -> {
+            try { Thread.sleep(3000); } catch (InterruptedException e) { }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        slow.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        slow.start();
+        HttpClientConfig config = new HttpClientConfig();
+        PoolingHttpClientConnectionManager cm = config.downstreamConnectionManager();
+        try (CloseableHttpClient client = config.downstreamHttpClient(cm)) {
+            RestTemplate template = new RestTemplate(config.downstreamRequestFactory(client));
+            String url = "http://localhost:" + slow.getAddress().getPort() + "/api/flights";
+            long deadline = System.nanoTime() + 300_000_000L;
+
+            long start = System.nanoTime();
+            assertThrows(ResourceAccessException.class,
+                    () -> CallDeadline.bind(deadline, () -> template.getForObject(url, String.class)).get());
+            assertTrue(System.nanoTime() - start < 2_000_000_000L);
+            // the abandoned call has given its connection back
+            assertEquals(0, cm.getTotalStats().getLeased());
+        } finally {
+            slow.stop(0);
+        }
+        assertEquals(Duration.ofSeconds(10), CallDeadline.timeout(Duration.ofSeconds(10)));
+    }
+
     // --- Extended Coverage Tests ---
 
     @Test
     void testGetCandidatePilots_Exception() {
-        when(restTemplate.getForObject(contains("pilots"), eq(Map[].class))).thenThrow(new RuntimeException("API Down"));
-        List<Map> result = rosterController.getCandidatePilots("Boeing", null, null);
+        when(restTemplate.getForObject(contains("pilots"), eq(PilotDto[].class))).thenThrow(new RuntimeException("API Down"));
+        List<PilotDto> result = rosterController.getCandidatePilots("Boeing", null, null);
         assertNotNull(result);
         assertTrue(result.isEmpty());
     }
 
     @Test
     void testGetCandidateCrew_Exception() {
-        when(restTemplate.getForObject(contains("cabin-crew"), eq(Map[].class))).thenThrow(new RuntimeException("API Down"));
-        List<Map> result = rosterController.getCandidateCrew(null, null);
+        when(restTemplate.getForObject(contains("cabin-crew"), eq(CrewDto[].class))).thenThrow(new RuntimeException("API Down"));
+        List<CrewDto> result = rosterController.getCandidateCrew(null, null);
         assertNotNull(result);
         assertTrue(result.isEmpty());
     }
@@ -265,15 +691,16 @@ public class MainSystemApiTest {
         data.put("pilots", List.of(Map.of("name", "P1"), Map.of("name", "P2")));
 
         // Simulate DB failure
-        when(sqlRepo.findByFlightIdOrderByGeneratedDateDesc(anyString())).thenThrow(new RuntimeException("DB Fail"));
+        when(sqlRepo.upsertLatest(anyString(), anyString(), any(), any(byte[].class))).thenThrow(new RuntimeException("DB Fail"));
 
         ResponseEntity<?> response = rosterController.saveRoster(data, "sql");
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+        assertEquals(1.0, meterRegistry.get("roster.save").tags("store", "sql", "outcome", "error").counter().count());
     }
 
     @Test
     void testGenerateRoster_FlightNotFound_FallbackFail() {
-        when(restTemplate.getForObject(contains("flights/"), eq(Map.class))).thenThrow(new RuntimeException("Main Fail"));
+        when(restTemplate.getForObject(contains("flights/"), eq(Map.class))).thenThrow(new ResourceAccessException("Main Fail", new UnknownHostException("flight-info-api")));
         when(restTemplate.getForObject(contains("localhost"), eq(Map.class))).thenThrow(new RuntimeException("Localhost Fail"));
 
         ResponseEntity<?> response = rosterController.generateRoster("TK9999", true);
@@ -316,13 +743,9 @@ public class MainSystemApiTest {
     void testGenerateRoster_ChefMenu() {
         lenient().when(restTemplate.getForObject(contains("flights/"), eq(Map.class))).thenReturn(validFlight);
         
-        Map<String, Object> chef = new HashMap<>();
-        chef.put("type", "CHEF");
-        chef.put("allowedVehicles", List.of("Embraer E195"));
-        chef.put("chefRecipes", List.of("Special Pasta"));
-        
-        Map[] crew = {chef};
-        when(restTemplate.getForObject(contains("cabin-crew"), eq(Map[].class))).thenReturn(crew);
+        CrewDto chef = crew(20, "Chef", "CHEF", List.of("Embraer E195"), List.of("Special Pasta"));
+        EligibleCrewDto eligibleCrew = new EligibleCrewDto(List.of(), List.of(chef), List.of());
+        when(restTemplate.getForObject(contains("cabin-crew/eligible"), eq(EligibleCrewDto.class), anyMap())).thenReturn(eligibleCrew);
 
         ResponseEntity<?> response = rosterController.generateRoster("TK1001", true);
         
@@ -341,28 +764,354 @@ public class MainSystemApiTest {
 
         lenient().when(restTemplate.getForObject(contains("flights/"), eq(Map.class))).thenReturn(badFlight);
         
-        Map<String, Object> p1 = new HashMap<>(); p1.put("id", 1); p1.put("seatType", "ECONOMY");
-        Map[] passengers = {p1};
-        lenient().when(restTemplate.getForObject(contains("passengers"), eq(Map[].class))).thenReturn(passengers);
+        PassengerDto[] passengers = {passenger(1, null, "ECONOMY", null, null)};
+        lenient().when(restTemplate.getForObject(contains("passengers"), eq(PassengerDto[].class))).thenReturn(passengers);
 
         ResponseEntity<?> response = rosterController.generateRoster("TK1001", true);
         assertEquals(HttpStatus.OK, response.getStatusCode());
         
         Map<String, Object> body = (Map<String, Object>) response.getBody();
-        List<Map> resPass = (List<Map>) body.get("passengers");
-        assertNull(resPass.get(0).get("seatNumber")); 
+        List<PassengerDto> resPass = (List<PassengerDto>) body.get("passengers");
+        assertNull(resPass.get(0).seatNumber()); 
     }
 
     @Test
     void testGenerateRoster_NullServiceResponse() {
         lenient().when(restTemplate.getForObject(contains("flights/"), eq(Map.class))).thenReturn(validFlight);
-        lenient().when(restTemplate.getForObject(contains("pilots"), eq(Map[].class))).thenReturn(null);
-        lenient().when(restTemplate.getForObject(contains("cabin-crew"), eq(Map[].class))).thenReturn(null);
-        lenient().when(restTemplate.getForObject(contains("passengers"), eq(Map[].class))).thenReturn(null);
+        lenient().when(restTemplate.getForObject(contains("pilots"), eq(PilotDto[].class))).thenReturn(null);
+        lenient().when(restTemplate.getForObject(contains("cabin-crew"), eq(CrewDto[].class))).thenReturn(null);
+        lenient().when(restTemplate.getForObject(contains("passengers"), eq(PassengerDto[].class))).thenReturn(null);
 
         ResponseEntity<?> response = rosterController.generateRoster("TK1001", true);
         assertEquals(HttpStatus.OK, response.getStatusCode());
         Map<String, Object> body = (Map<String, Object>) response.getBody();
         assertTrue(((List)body.get("pilots")).isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGenerateRoster_SlowServiceGivesPartialRoster() {
+        System.setProperty("ROSTER_DEADLINE_MS", "300");
+        try {
+            RosterController controller = new RosterController(restTemplate, objectMapper, sqlRepo, mongoRepo, summaryRepo, outboxRepo, versionRepo, transactionManager, meterRegistry);
+            lenient().when(restTemplate.getForObject(contains("flights/"), eq(Map.class))).thenReturn(validFlight);
+            lenient().when(restTemplate.getForObject(contains("pilots"), eq(PilotDto[].class))).thenReturn(new PilotDto[]{});
+            lenient().when(restTemplate.getForObject(contains("cabin-crew"), eq(CrewDto[].class))).thenReturn(new CrewDto[]{});
+            when(restTemplate.getForObject(contains("passengers"), eq(PassengerDto[].class))).thenAnswer(inv -> {
+                Thread.sleep(5000);
+                return new PassengerDto[]{};
+            });
+
+            long start = System.currentTimeMillis();
+            ResponseEntity<?> response = controller.generateRoster("TK1001", true);
+            assertTrue(System.currentTimeMillis() - start < 3000);
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+
+            Map<String, Object> body = (Map<String, Object>) response.getBody();
+            assertEquals(true, body.get("partial"));
+            assertEquals(List.of("passengers"), body.get("missingSections"));
+            assertTrue(((List) body.get("passengers")).isEmpty());
+            controller.shutdownFanOut();
+        } finally {
+            System.clearProperty("ROSTER_DEADLINE_MS");
+        }
+    }
+
+    @Test
+    void testGenerateRoster_PilotsFromEligibilityQuery() {
+        lenient().when(restTemplate.getForObject(endsWith("/flights/TK1001"), eq(Map.class))).thenReturn(validFlight);
+        lenient().when(restTemplate.getForObject(contains("shared-info"), eq(Map.class))).thenReturn(new HashMap<>(Map.of("isShared", false)));
+
+        PilotDto senior = pilot(1, "Cpt. S", "SENIOR", "Embraer E195", 5000);
+        PilotDto junior = pilot(2, "F.O. J", "JUNIOR", "Embraer E195", 5000);
+        when(restTemplate.getForObject(contains("pilots/eligible"), eq(PilotDto[].class), anyMap())).thenAnswer(inv -> {
+            Map<String, Object> params = inv.getArgument(2);
+            assertEquals("Embraer E195", params.get("vehicle"));
+            assertEquals(1500, params.get("minRangeKm"));
+            return "SENIOR".equals(params.get("seniority")) ? new PilotDto[]{senior} : new PilotDto[]{junior};
+        });
+
+        ResponseEntity<?> response = rosterController.generateRoster("TK1001", true);
+        Map<String, Object> body = (Map<String, Object>) response.getBody();
+        assertEquals(List.of(senior, junior), body.get("pilots"));
+    }
+
+    @Test
+    void testGenerateRoster_CrewFromEligibilityQuery() {
+        lenient().when(restTemplate.getForObject(contains("flights/"), eq(Map.class))).thenReturn(validFlight);
+
+        CrewDto chief = crew(1, "Chief", "CHIEF", List.of("Embraer E195"), null);
+        CrewDto regular1 = crew(2, "R1", "REGULAR", List.of("Embraer E195"), null);
+        CrewDto regular2 = crew(3, "R2", "REGULAR", List.of("Embraer E195"), null);
+        EligibleCrewDto eligibleCrew = new EligibleCrewDto(List.of(chief), List.of(), List.of(regular1, regular2));
+        when(restTemplate.getForObject(contains("cabin-crew/eligible"), eq(EligibleCrewDto.class), anyMap())).thenAnswer(inv -> {
+            assertEquals("Embraer E195", ((Map) inv.getArgument(2)).get("vehicle"));
+            return eligibleCrew;
+        });
+
+        ResponseEntity<?> response = rosterController.generateRoster("TK1001", true);
+        Map<String, Object> body = (Map<String, Object>) response.getBody();
+        assertEquals(List.of(chief, regular1, regular2), body.get("cabinCrew"));
+    }
+
+    @Test
+    void testReferenceCache_PilotsAndCrewFetchedOnce() {
+        lenient().when(restTemplate.getForObject(endsWith("/flights/TK1001"), eq(Map.class))).thenReturn(validFlight);
+        lenient().when(restTemplate.getForObject(contains("shared-info"), eq(Map.class))).thenReturn(new HashMap<>(Map.of("isShared", false)));
+
+        PilotDto senior = pilot(1, "S", "SENIOR", "Embraer E195", 5000);
+        PilotDto shortJunior = pilot(2, "J1", "JUNIOR", "Embraer E195", 1000);
+        PilotDto junior = pilot(3, "J2", "JUNIOR", "Embraer E195", 4000);
+        PilotDto otherJunior = pilot(4, "J3", "JUNIOR", "Boeing 737-800", 9000);
+        when(restTemplate.getForObject(endsWith("/api/pilots"), eq(PilotDto[].class))).thenReturn(new PilotDto[]{senior, shortJunior, junior, otherJunior});
+
+        CrewDto chief = crew(10, "C", "CHIEF", List.of("Embraer E195"), null);
+        CrewDto regular = crew(11, "R1", "REGULAR", List.of("Boeing 737-800", "Embraer E195"), null);
+        CrewDto otherRegular = crew(12, "R2", "REGULAR", List.of("Boeing 737-800"), null);
+        when(restTemplate.getForObject(endsWith("/api/cabin-crew"), eq(CrewDto[].class))).thenReturn(new CrewDto[]{chief, regular, otherRegular});
+
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> body = (Map<String, Object>) rosterController.generateRoster("TK1001", true).getBody();
+            assertEquals(List.of(senior, junior), body.get("pilots"));
+            assertEquals(List.of(chief, regular), body.get("cabinCrew"));
+        }
+        assertEquals(4, rosterController.getCandidatePilots("Embraer E195", null, null).size());
+
+        verify(restTemplate, times(1)).getForObject(endsWith("/api/pilots"), eq(PilotDto[].class));
+        verify(restTemplate, times(1)).getForObject(endsWith("/api/cabin-crew"), eq(CrewDto[].class));
+        verify(restTemplate, never()).getForObject(contains("eligible"), eq(PilotDto[].class), anyMap());
+
+        Map<String, Object> pilotStats = (Map<String, Object>) rosterController.getReferenceCacheStats().get("pilots");
+        assertEquals(1L, pilotStats.get("misses"));
+        assertEquals(3L, pilotStats.get("hits"));
+
+        rosterController.invalidateReferenceCache();
+        rosterController.generateRoster("TK1001", true);
+        verify(restTemplate, times(2)).getForObject(endsWith("/api/pilots"), eq(PilotDto[].class));
+    }
+
+    @Test
+    void testGenerateBatch_StreamsOneLinePerFlight() throws Exception {
+        when(restTemplate.getForObject(endsWith("/flights/TK1001"), eq(Map.class))).thenReturn(validFlight);
+        Map<String, Object> flight2 = new HashMap<>(validFlight);
+        flight2.put("flightNumber", "TK2020");
+        flight2.put("dateTime", "2025-06-02T10:00:00");
+        Map<String, Object> flight1 = new HashMap<>(validFlight);
+        flight1.put("dateTime", "2025-06-01T10:00:00");
+        when(restTemplate.getForObject(endsWith("/api/flights"), eq(Map[].class))).thenReturn(new Map[]{flight1, flight2});
+
+        Map<String, Object> request = new HashMap<>();
+        request.put("flightIds", List.of("TK1001"));
+        request.put("from", "2025-06-02");
+        request.put("to", "2025-06-02");
+        request.put("forceNew", true);
+
+        ResponseEntity<?> response = rosterController.generateBatch(request, 2);
+        assertEquals("application/x-ndjson", response.getHeaders().getContentType().toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingResponseBody) response.getBody()).writeTo(out);
+        String[] lines = out.toString().trim().split("\n");
+        assertEquals(2, lines.length);
+
+        Map<String, Map<String, Object>> byFlight = new HashMap<>();
+        for (String line : lines) {
+            Map<String, Object> entry = new ObjectMapper().readValue(line, Map.class);
+            byFlight.put((String) entry.get("flightId"), entry);
+        }
+        assertEquals("ok", byFlight.get("TK1001").get("status"));
+        assertNotNull(byFlight.get("TK1001").get("roster"));
+        // TK2020 is only known to the date range and has no flight detail stub -> reported inline, batch continues
+        assertEquals("error", byFlight.get("TK2020").get("status"));
+        assertEquals(404, byFlight.get("TK2020").get("httpStatus"));
+    }
+
+    // Through MVC's request dispatch: the return value handler, not the method, decides whether the body streams
+    @Test
+    void testGenerateBatch_StreamsNdjsonThroughDispatch() throws Exception {
+        when(restTemplate.getForObject(endsWith("/flights/TK1001"), eq(Map.class))).thenReturn(validFlight);
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(rosterController).build();
+
+        MvcResult started = mvc.perform(post("/api/roster/generate/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"flightIds\": [\"TK1001\"], \"forceNew\": true}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        Map<String, Object> line = objectMapper.readValue(body.trim(), Map.class);
+        assertEquals("TK1001", line.get("flightId"));
+        assertEquals("ok", line.get("status"));
+    }
+
+    @Test
+    void testGenerateBatch_RejectsEmptySelection() throws Exception {
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(rosterController).build();
+
+        MvcResult started = mvc.perform(post("/api/roster/generate/batch").contentType(MediaType.APPLICATION_JSON).content("{}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(started))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().string(containsString("Validation Error")));
+    }
+
+    @Test
+    void testGenerateRoster_MemoizedWithEtag() {
+        when(sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
+        when(mongoRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
+        when(restTemplate.getForObject(endsWith("/flights/TK1001"), eq(Map.class))).thenReturn(validFlight);
+        when(restTemplate.getForObject(contains("shared-info"), eq(Map.class))).thenReturn(new HashMap<>(Map.of("isShared", false)));
+
+        ResponseEntity<?> first = rosterController.generateRoster("TK1001", false, null);
+        String etag = first.getHeaders().getETag();
+        assertNotNull(etag);
+
+        ResponseEntity<?> second = rosterController.generateRoster("TK1001", false, etag);
+        assertEquals(HttpStatus.NOT_MODIFIED, second.getStatusCode());
+        assertEquals(etag, second.getHeaders().getETag());
+
+        ResponseEntity<?> third = rosterController.generateRoster("TK1001", false, "\"other\"");
+        assertEquals(HttpStatus.OK, third.getStatusCode());
+        assertSame(first.getBody(), third.getBody());
+
+        // one generation for three views; the inputs are fetched each time to check the memo against
+        assertEquals(1.0, meterRegistry.get("roster.generate").tags("store", "services", "outcome", "generated").counter().count());
+        assertEquals(1.0, meterRegistry.get("roster.generate").tags("store", "memo", "outcome", "not_modified").counter().count());
+        assertEquals(1.0, meterRegistry.get("roster.generate").tags("store", "memo", "outcome", "hit").counter().count());
+
+        // saving the flight drops the memoized roster
+        Map<String, Object> data = new HashMap<>();
+        data.put("flightId", "TK1001");
+        data.put("pilots", List.of(Map.of("name", "P1"), Map.of("name", "P2")));
+        rosterController.saveRoster(data, "sql");
+        rosterController.generateRoster("TK1001", false, etag);
+        assertEquals(2.0, meterRegistry.get("roster.generate").tags("store", "services", "outcome", "generated").counter().count());
+    }
+
+    @Test
+    void testGenerateRoster_MemoMissesWhenPassengersChange() {
+        when(sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
+        when(mongoRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
+        when(restTemplate.getForObject(endsWith("/flights/TK1001"), eq(Map.class))).thenReturn(validFlight);
+        when(restTemplate.getForObject(contains("passengers"), eq(PassengerDto[].class)))
+                .thenReturn(new PassengerDto[]{passenger(1, 30, "ECONOMY", null, null)})
+                .thenReturn(new PassengerDto[]{passenger(1, 30, "ECONOMY", null, null), passenger(2, 41, "ECONOMY", null, null)});
+
+        ResponseEntity<?> first = rosterController.generateRoster("TK1001", false, null);
+        String etag = first.getHeaders().getETag();
+        // a passenger was imported in between: a new roster under a new tag, not a 304 for the old one
+        ResponseEntity<?> second = rosterController.generateRoster("TK1001", false, etag);
+
+        assertEquals(HttpStatus.OK, second.getStatusCode());
+        assertNotEquals(etag, second.getHeaders().getETag());
+        assertEquals(2, ((List<?>) ((Map<?, ?>) second.getBody()).get("passengers")).size());
+    }
+
+    @Test
+    void testGenerateRoster_MemoizedOnColdReferenceCache() {
+        when(sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
+        when(mongoRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc(anyString())).thenReturn(Collections.emptyList());
+        when(restTemplate.getForObject(endsWith("/flights/TK1001"), eq(Map.class))).thenReturn(validFlight);
+        when(restTemplate.getForObject(endsWith("/api/pilots"), eq(PilotDto[].class))).thenReturn(new PilotDto[]{
+                pilot(1, "S", "SENIOR", "Embraer E195", 5000), pilot(2, "J", "JUNIOR", "Embraer E195", 5000)});
+        when(restTemplate.getForObject(endsWith("/api/cabin-crew"), eq(CrewDto[].class))).thenReturn(new CrewDto[]{
+                crew(1, "C", "CHIEF", List.of("Embraer E195"), null)});
+
+        // the first roster loads both snapshots; it is memoized under the versions it was picked from
+        ResponseEntity<?> first = rosterController.generateRoster("TK1001", false, null);
+        assertEquals(2, ((List<?>) ((Map<?, ?>) first.getBody()).get("pilots")).size());
+        ResponseEntity<?> second = rosterController.generateRoster("TK1001", false, null);
+        assertSame(first.getBody(), second.getBody());
+        assertEquals(1.0, meterRegistry.get("roster.generate").tags("store", "memo", "outcome", "hit").counter().count());
+    }
+
+    @Test
+    void testGenerateRoster_SavedRosterNotModified() {
+        RosterSqlEntity entity = new RosterSqlEntity();
+        entity.setRosterData("{\"flightId\": \"TK1001\"}");
+        when(sqlRepo.findByNormalizedFlightIdOrderByGeneratedDateDesc("TK1001")).thenReturn(Collections.singletonList(entity));
+
+        String etag = rosterController.generateRoster("TK1001", false, null).getHeaders().getETag();
+        ResponseEntity<?> response = rosterController.generateRoster("TK1001", false, etag);
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertNull(response.getBody());
+    }
+
+    @Test
+    void testGenerateRoster_ServerErrorIsNotRetriedOnLocalhost() {
+        when(restTemplate.getForObject(endsWith("/flights/TK1001"), eq(Map.class)))
+            .thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE));
+
+        ResponseEntity<?> response = rosterController.generateRoster("TK1001", true);
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        // one retry from the budget, no second round against localhost
+        verify(restTemplate, times(2)).getForObject(endsWith("/flights/TK1001"), eq(Map.class));
+        verify(restTemplate, never()).getForObject(contains("localhost"), eq(Map.class));
+        assertEquals(1.0, meterRegistry.get("roster.downstream.resilience").tags("service", "flight", "event", "retried").counter().count());
+    }
+
+    @Test
+    void testGenerateRoster_OpenBreakerFailsFast() {
+        lenient().when(restTemplate.getForObject(endsWith("/flights/TK1001"), eq(Map.class))).thenReturn(validFlight);
+        lenient().when(restTemplate.getForObject(contains("pilots"), eq(PilotDto[].class))).thenReturn(new PilotDto[]{});
+        lenient().when(restTemplate.getForObject(contains("cabin-crew"), eq(CrewDto[].class))).thenReturn(new CrewDto[]{});
+        when(restTemplate.getForObject(contains("passengers"), eq(PassengerDto[].class)))
+            .thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE));
+
+        for (int i = 0; i < 10; i++) rosterController.generateRoster("TK1001", true);
+        assertEquals(DownstreamGuard.STATE_OPEN, meterRegistry.get("roster.downstream.breaker").tag("service", "passenger").gauge().value());
+
+        clearInvocations(restTemplate);
+        ResponseEntity<?> response = rosterController.generateRoster("TK1001", true);
+        verify(restTemplate, never()).getForObject(contains("passengers"), eq(PassengerDto[].class));
+        Map<String, Object> body = (Map<String, Object>) response.getBody();
+        assertEquals(true, body.get("partial"));
+        assertEquals(List.of("passengers"), body.get("missingSections"));
+        assertTrue(meterRegistry.get("roster.downstream.resilience").tags("service", "passenger", "event", "rejected").counter().count() >= 1);
+    }
+
+    @Test
+    void testDownstreamGuard_HedgesSlowCall() {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            DownstreamGuard guard = new DownstreamGuard(new RosterMetrics(meterRegistry), executor);
+            for (int i = 0; i < 20; i++) guard.call("passenger", "passengers", () -> "fast");
+
+            // the first attempt hangs, the hedge sent after the p95 delay answers
+            AtomicInteger attempts = new AtomicInteger();
+            long start = System.currentTimeMillis();
+            String result = guard.call("passenger", "passengers", () -> {
+                if (attempts.incrementAndGet() == 1) {
+                    try { Thread.sleep(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                    return "slow";
+                }
+                return "hedged";
+            });
+            assertEquals("hedged", result);
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            assertEquals(1.0, meterRegistry.get("roster.downstream.resilience").tags("service", "passenger", "event", "hedged").counter().count());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testStreamManifest_PipesPassengerServiceNdjson() throws Exception {
+        String ndjson = "{\"id\":11,\"name\":\"P1\"}\n{\"id\":12,\"name\":\"P2\"}\n";
+        when(restTemplate.execute(any(URI.class), eq(HttpMethod.GET), isNull(), any(ResponseExtractor.class))).thenAnswer(inv -> {
+            ResponseExtractor<?> extractor = inv.getArgument(3);
+            return extractor.extractData(new MockClientHttpResponse(ndjson.getBytes(StandardCharsets.UTF_8), HttpStatus.OK));
+        });
+
+        ResponseEntity<StreamingResponseBody> response = rosterController.streamManifest("tk 1001", 10L, 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        assertEquals(ndjson, out.toString(StandardCharsets.UTF_8));
+        verify(restTemplate).execute(eq(URI.create("http://passenger-api:8084/api/passengers/flight/TK1001/manifest?afterId=10&limit=2")),
+                eq(HttpMethod.GET), isNull(), any(ResponseExtractor.class));
+    }
+}
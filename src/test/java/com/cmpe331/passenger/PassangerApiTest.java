@@ -1,21 +1,45 @@
 package com.cmpe331.passenger;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.Table;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import org.sqlite.SQLiteDataSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -24,6 +48,15 @@ class PassengerApiTest {
     @Mock
     private PassengerRepository repo;
 
+    @Spy
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Mock
+    private PassengerImporter importer;
+
+    @TempDir
+    Path tempDir;
+
     @InjectMocks
     private PassengerController controller;
     
@@ -47,6 +80,46 @@ class PassengerApiTest {
         assertEquals(1, res.getBody().size());
     }
 
+    @Test
+    void testManifest_StreamsKeysetPagesAsNdjson() throws Exception {
+        Passenger p1 = new Passenger("P1", 20, "M", "UK", "TK1", "Eco", "1A");
+        Passenger p2 = new Passenger("P2", 30, "F", "UK", "TK1", "Eco", "1B");
+        p2.setAffiliatedPassengerIds(Set.of(7L));
+        when(repo.findIdsByFlightIdAfter("TK1", 10L, PageRequest.of(0, 2))).thenReturn(List.of(11L, 12L));
+        when(repo.findWithAffiliationsByIdIn(List.of(11L, 12L))).thenReturn(List.of(p1, p2));
+
+        ResponseEntity<StreamingResponseBody> res = controller.getManifest("TK1", 10L, 2);
+        assertEquals("application/x-ndjson", res.getHeaders().getContentType().toString());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        res.getBody().writeTo(out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("P1", mapper.readTree(lines[0]).get("name").asText());
+        assertEquals(7L, mapper.readTree(lines[1]).get("affiliatedPassengerIds").get(0).asLong());
+        // limit reached, no further page
+        verify(repo, times(1)).findIdsByFlightIdAfter(anyString(), anyLong(), any());
+    }
+
+    @Test
+    void testManifest_StopsAfterShortPage() throws Exception {
+        when(repo.findIdsByFlightIdAfter("TK1", 0L, PageRequest.of(0, PassengerController.MANIFEST_PAGE_SIZE))).thenReturn(List.of(3L));
+        when(repo.findWithAffiliationsByIdIn(List.of(3L))).thenReturn(List.of(new Passenger("P1", 20, "M", "UK", "TK1", "Eco", "1A")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.getManifest("TK1", 0L, null).getBody().writeTo(out);
+
+        assertEquals(1, out.toString(StandardCharsets.UTF_8).split("\n").length);
+        verify(repo, times(1)).findIdsByFlightIdAfter(anyString(), anyLong(), any());
+        verify(repo, never()).findByFlightId(anyString());
+    }
+
+    @Test
+    void testPassengersIndexedByFlight() {
+        Table table = Passenger.class.getAnnotation(Table.class);
+        assertEquals("flight_id, id", table.indexes()[0].columnList());
+    }
+
     @Test
     void testEntityFullCoverage() {
         Passenger p = new Passenger();
@@ -89,9 +162,164 @@ class PassengerApiTest {
         verify(repo, atLeastOnce()).save(any(Passenger.class));
     }
     
+    // Importer against a real SQLite file with the tables Hibernate creates for Passenger
+    private JdbcTemplate importDatabase() {
+        SQLiteDataSource ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + tempDir.resolve("import.sqlite"));
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("create table passengers (id integer primary key autoincrement, age integer not null, flight_id varchar(255), gender varchar(255), name varchar(255), nationality varchar(255), parent_id bigint, seat_number varchar(255), seat_type varchar(255))");
+        jdbc.execute("create table passenger_affiliations (passenger_id bigint not null, affiliated_id bigint)");
+        return jdbc;
+    }
+
+    private PassengerImporter importer(JdbcTemplate jdbc) {
+        return new PassengerImporter(jdbc, new TransactionTemplate(new DataSourceTransactionManager(jdbc.getDataSource())), new ObjectMapper());
+    }
+
+    @Test
+    void testImportCsv_LinksRefsAndRejectsInvalidRows() throws Exception {
+        JdbcTemplate jdbc = importDatabase();
+        jdbc.update("insert into passengers (id, age, name, flight_id) values (7, 40, 'Existing', 'TK1001')");
+        String csv = """
+                ref,name,age,gender,nationality,flightId,seatType,seatNumber,parentRef,affiliatedRefs,affiliatedPassengerIds
+                B1,"Kaya, Fatma",28,Female,Turkey,tk 1001,ECONOMY,5A,,,
+                B2,Can Kaya,1,Male,Turkey,TK1001,ECONOMY,,B1,,
+                B3,Ali Demir,30,Male,Turkey,TK1001,ECONOMY,,,B4,7
+                B4,Ayse Demir,29,Female,Turkey,TK1001,ECONOMY,,,B3|B9,
+                B5,No Age,,Male,Turkey,TK1001,ECONOMY,,,,
+                """;
+
+        PassengerImporter.ImportReport report = importer(jdbc).importCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(4, report.imported());
+        assertEquals(1, report.rejected());
+        assertEquals(3, report.affiliations());
+        assertEquals(1, report.unresolvedRefs());
+        assertTrue(report.errors().contains("line 6: age is missing"));
+        assertEquals("Kaya, Fatma", jdbc.queryForObject("select name from passengers where id = 8", String.class));
+        assertEquals("TK1001", jdbc.queryForObject("select flight_id from passengers where id = 8", String.class));
+        assertEquals(8L, jdbc.queryForObject("select parent_id from passengers where id = 9", Long.class));
+        assertEquals(List.of(7L, 11L), jdbc.queryForList("select affiliated_id from passenger_affiliations where passenger_id = 10 order by affiliated_id", Long.class));
+        assertEquals(List.of(10L), jdbc.queryForList("select affiliated_id from passenger_affiliations where passenger_id = 11", Long.class));
+    }
+
+    @Test
+    void testImportNdjson_WritesEveryChunk() throws Exception {
+        JdbcTemplate jdbc = importDatabase();
+        StringBuilder ndjson = new StringBuilder();
+        int rows = PassengerImporter.CHUNK_ROWS + 5;
+        for (int i = 0; i < rows; i++) {
+            ndjson.append("{\"ref\":\"R").append(i).append("\",\"name\":\"P").append(i).append("\",\"age\":30,\"flightId\":\"TK2020\"")
+                    .append(i == rows - 1 ? ",\"affiliatedRefs\":[\"R0\"]" : "").append("}\n");
+        }
+        ndjson.append("not json\n");
+
+        PassengerImporter.ImportReport report = importer(jdbc).importNdjson(new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(rows, report.imported());
+        assertEquals(List.of("line " + (rows + 1) + ": invalid JSON"), report.errors());
+        assertEquals(rows, jdbc.queryForObject("select count(*) from passengers where flight_id = 'TK2020'", Integer.class));
+        assertEquals(1L, jdbc.queryForObject("select affiliated_id from passenger_affiliations where passenger_id = ?", Long.class, (long) rows));
+    }
+
+    @Test
+    void testImportCsv_IdsStayFreeWhileAnotherWriterInserts() throws Exception {
+        JdbcTemplate setup = importDatabase();
+        setup.execute("pragma journal_mode=wal");
+        JdbcTemplate other = new JdbcTemplate(setup.getDataSource());
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        List<Future<?>> competing = new ArrayList<>();
+        // Another connection saves a passenger just before the chunk's batch insert
+        JdbcTemplate jdbc = new JdbcTemplate(setup.getDataSource()) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                if (competing.isEmpty()) {
+                    competing.add(writer.submit(() -> other.update("insert into passengers (age, name, flight_id) values (50, 'Walk-in', 'TK1001')")));
+                    try { competing.get(0).get(500, TimeUnit.MILLISECONDS); } catch (Exception e) { /* still waiting for the write lock */ }
+                }
+                return super.batchUpdate(sql, batchArgs);
+            }
+        };
+        String csv = "name,age,flightId\nA,30,TK1001\nB,31,TK1001\nC,32,TK1001\n";
+
+        try {
+            PassengerImporter.ImportReport report = importer(jdbc).importCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+            competing.get(0).get(5, TimeUnit.SECONDS);
+
+            assertEquals(3, report.imported());
+            assertEquals(List.of("A", "B", "C", "Walk-in"), setup.queryForList("select name from passengers order by id", String.class));
+        } finally {
+            writer.shutdownNow();
+        }
+    }
+
+    @Test
+    void testImportCsv_RejectsRowsReferringToUnknownPassengers() throws Exception {
+        JdbcTemplate jdbc = importDatabase();
+        jdbc.update("insert into passengers (id, age, name, flight_id) values (7, 40, 'Existing', 'TK1001')");
+        String csv = """
+                name,age,flightId,parentId,affiliatedPassengerIds
+                Child,4,TK1001,7,
+                Orphan,3,TK1001,99,
+                Friend,30,TK1001,,7|98
+                Partner,31,TK1001,,7
+                """;
+
+        PassengerImporter.ImportReport report = importer(jdbc).importCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, report.imported());
+        assertEquals(2, report.rejected());
+        assertEquals(List.of("line 3: unknown parentId 99", "line 4: unknown affiliatedPassengerId 98"), report.errors());
+        assertNull(report.failedAtLine());
+        assertEquals(List.of("Existing", "Child", "Partner"), jdbc.queryForList("select name from passengers order by id", String.class));
+        assertEquals(List.of(7L), jdbc.queryForList("select affiliated_id from passenger_affiliations", Long.class));
+    }
+
+    @Test
+    void testImportCsv_FailedChunkReportsWhatWasCommitted() throws Exception {
+        JdbcTemplate setup = importDatabase();
+        AtomicLong chunks = new AtomicLong();
+        JdbcTemplate jdbc = new JdbcTemplate(setup.getDataSource()) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                if (chunks.incrementAndGet() == 2) throw new DataAccessResourceFailureException("disk I/O error");
+                return super.batchUpdate(sql, batchArgs);
+            }
+        };
+        StringBuilder csv = new StringBuilder("name,age,flightId\n");
+        for (int i = 0; i < PassengerImporter.CHUNK_ROWS + 3; i++) csv.append("P").append(i).append(",30,TK3030\n");
+
+        PassengerImporter.ImportFailed failed = assertThrows(PassengerImporter.ImportFailed.class,
+                () -> importer(jdbc).importCsv(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8))));
+
+        // the first chunk is committed, the second one (from line CHUNK_ROWS + 2, after the header) is not
+        long resumeAt = PassengerImporter.CHUNK_ROWS + 2;
+        assertEquals(PassengerImporter.CHUNK_ROWS, failed.report.imported());
+        assertEquals(resumeAt, failed.report.failedAtLine());
+        assertEquals(List.of("line " + resumeAt + ": import stopped, rows from this line on were not imported"), failed.report.errors());
+        assertEquals(PassengerImporter.CHUNK_ROWS, setup.queryForObject("select count(*) from passengers", Integer.class));
+    }
+
+    @Test
+    void testImportPassengers_PicksParserByContentType() throws Exception {
+        PassengerImporter.ImportReport report = new PassengerImporter.ImportReport(1, 0, 0, 0, 0.1, 10, List.of(), null);
+        PassengerImporter.ImportReport partial = new PassengerImporter.ImportReport(10, 0, 0, 0, 0.1, 100, List.of("line 12: import stopped, rows from this line on were not imported"), 12L);
+        when(importer.importCsv(any())).thenReturn(report);
+        when(importer.importNdjson(any())).thenThrow(new PassengerImporter.ImportFailed(partial, new IllegalStateException("disk full")));
+
+        assertSame(report, controller.importPassengers("text/csv; charset=utf-8", new ByteArrayInputStream(new byte[0])).getBody());
+        ResponseEntity<?> failed = controller.importPassengers("application/x-ndjson", new ByteArrayInputStream(new byte[0]));
+        assertEquals(500, failed.getStatusCode().value());
+        // what was committed and where to resume, not the exception text
+        assertSame(partial, failed.getBody());
+    }
+
     @Test
     void testSecurityConfigBeans() {
         SecurityConfig config = new SecurityConfig();
         assertNotNull(config.userDetailsService());
+        // the import endpoint is restricted to this role
+        assertTrue(config.userDetailsService().loadUserByUsername("admin").getAuthorities().stream()
+                .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN")));
     }
 }
\ No newline at end of file
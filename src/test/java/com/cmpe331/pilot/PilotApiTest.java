@@ -1,19 +1,28 @@
 package com.cmpe331.pilot;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -37,6 +46,27 @@ class PilotApiTest {
         assertEquals("Capt. Test", result.get(0).getName());
     }
 
+    @Test
+    void testGetEligiblePilots() {
+        Pilot p = new Pilot("F.O. Test", 30, "Male", "TR", 9000, "Boeing 737-800", "JUNIOR");
+        when(pilotRepository.findByAllowedVehicleTypeIgnoreCaseAndSeniorityLevelAndAllowedRangeKmGreaterThanEqual(eq("Boeing 737-800"), eq("JUNIOR"), eq(8000), any(Pageable.class)))
+            .thenReturn(Collections.singletonList(p));
+
+        List<Pilot> result = pilotController.getEligible("Boeing 737-800", 8000, "junior", 1);
+        assertEquals(1, result.size());
+        verify(pilotRepository, never()).findAll();
+    }
+
+    @Test
+    void testGetEligiblePilotsAnySeniorityCapsLimit() {
+        ArgumentCaptor<Pageable> page = ArgumentCaptor.forClass(Pageable.class);
+        when(pilotRepository.findByAllowedVehicleTypeIgnoreCaseAndAllowedRangeKmGreaterThanEqual(eq("Embraer E195"), eq(0), page.capture()))
+            .thenReturn(Collections.emptyList());
+
+        assertTrue(pilotController.getEligible("Embraer E195", 0, null, 100000).isEmpty());
+        assertEquals(100, page.getValue().getPageSize());
+    }
+
     @Test
     void testPilotEntityCoverage() {
         Pilot p = new Pilot();
@@ -73,6 +103,55 @@ class PilotApiTest {
         verify(pilotRepository, never()).save(any(Pilot.class));
     }
     
+    @Test
+    void testServingModeAnswersFromSnapshot() {
+        Pilot senior = new Pilot("Cpt. A", 50, "Male", "TR", 12000, "Boeing 737-800", "SENIOR");
+        Pilot junior = new Pilot("F.O. B", 30, "Female", "TR", 9000, "Boeing 737-800", "JUNIOR");
+        Pilot shortRange = new Pilot("F.O. C", 24, "Male", "TR", 3000, "Boeing 737-800", "JUNIOR");
+        when(pilotRepository.findAll()).thenReturn(List.of(senior, junior, shortRange));
+        PilotServingController serving = new PilotServingController(pilotRepository, new ObjectMapper(), 0);
+
+        String eligible = new String(serving.getEligible("Boeing 737-800", 8000, " junior", 10), StandardCharsets.UTF_8);
+        assertTrue(eligible.startsWith("[{") && eligible.contains("F.O. B") && !eligible.contains("F.O. C") && !eligible.contains("Cpt. A"));
+        assertEquals("[]", new String(serving.getEligible("Airbus A320", 0, null, 10), StandardCharsets.UTF_8));
+        // the vehicle matches ignoring case, as in the repository queries
+        assertEquals(eligible, new String(serving.getEligible("BOEING 737-800", 8000, "JUNIOR", 10), StandardCharsets.UTF_8));
+        assertTrue(new String(serving.getAll(), StandardCharsets.UTF_8).contains("F.O. C"));
+        serving.getEligible("Boeing 737-800", 0, null, 1);
+        verify(pilotRepository, times(1)).findAll();
+
+        // a rebuild swaps in the new table contents
+        when(pilotRepository.findAll()).thenReturn(List.of(senior));
+        serving.start();
+        assertEquals("[]", new String(serving.getEligible("Boeing 737-800", 8000, "JUNIOR", 10), StandardCharsets.UTF_8));
+        assertEquals(2L, serving.getServingStats().get("version"));
+        serving.stop();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testServingSnapshotRebuildsOnlyAfterCommit() throws Exception {
+        Pilot pilot = new Pilot("Cpt. A", 50, "Male", "TR", 12000, "Boeing 737-800", "SENIOR");
+        when(pilotRepository.findAll()).thenReturn(List.of(pilot));
+        PilotServingController serving = new PilotServingController(pilotRepository, new ObjectMapper(), 0);
+        serving.start();
+        ObjectProvider<PilotServingController> provider = mock(ObjectProvider.class);
+        doAnswer(inv -> { ((Consumer<PilotServingController>) inv.getArgument(0)).accept(serving); return null; }).when(provider).ifAvailable(any());
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            new PilotChangeListener(provider).onChange(pilot);
+            // flushed but not committed: a reload now would read the old table
+            verify(provider, never()).ifAvailable(any());
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        for (int i = 0; i < 100 && (long) serving.getServingStats().get("version") < 2; i++) Thread.sleep(20);
+        assertEquals(2L, serving.getServingStats().get("version"));
+        serving.stop();
+    }
+
     @Test
     void testSecurityConfigBeans() {
         SecurityConfig config = new SecurityConfig();